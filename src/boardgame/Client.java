@@ -134,7 +134,7 @@ public class Client implements Runnable {
                 throw new Exception();
             }
 
-            myMove.setPlayerID(playerID);
+            myMove = myMove.withPlayerID(playerID);
             myMove.setFromBoard(false);
         } catch (Exception e) {
             System.err.println(
@@ -25,6 +25,16 @@ abstract public class Move implements Cloneable {
     /** Set the player who plays this move */
     abstract public void setPlayerID(int player_id);
 
+    /**
+     * Return this move played by the given player. The default implementation
+     * sets the player on this move and returns it; moves that cannot be changed
+     * in place return a copy instead.
+     */
+    public Move withPlayerID(int player_id) {
+        setPlayerID(player_id);
+        return this;
+    }
+
     /** Set whether the move comes from the board or a client */
     abstract public void setFromBoard(boolean from_board);
 
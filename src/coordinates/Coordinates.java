@@ -2,36 +2,157 @@ package coordinates;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
 
 import coordinates.Coord;
 
+/**
+ * The coordinates of the board, all created once.
+ *
+ * Besides Coord objects, squares can be referred to by an int index from 0 to
+ * size * size - 1, where square x * size + y is the coord (x, y). The int
+ * versions of the queries below are backed by tables filled in when the
+ * coordinates are set, so they neither allocate nor throw; the Coord versions
+ * delegate to them.
+ *
+ * The tables are filled once, under a lock, and never change afterwards. The
+ * isSet flag is volatile and is written last, so any thread that has seen it
+ * set (or that started after the coordinates were set) sees complete tables
+ * and can read them without further synchronization.
+ */
 public class Coordinates {
+    public static final int NUM_DIRECTIONS = 4; // -x, -y, +x, +y, in that order
+    private static final int[] DX = { -1, 0, 1, 0 };
+    private static final int[] DY = { 0, -1, 0, 1 };
+
     private static Coord[][] allCoordinates;
+    private static Coord[] coordsBySquare;
+    private static List<Coord> coordList;
     private static int size;
-    private static boolean isSet = false;
-
-    // Sets all coords, should ONLY BE called once.
-    public static void setAllCoordinates(int max) {
+    private static volatile boolean isSet = false;
+
+    /* Per-square tables. Neighbors are -1 when off the board. */
+    private static int[][] neighborSquares;
+    private static List<List<Coord>> neighborLists;
+    private static boolean[] corners;
+    private static boolean[] centers;
+    private static boolean[] centersOrNeighborCenters;
+    private static int[] cornerDistances;
+
+    // Sets all coords. Only the first call has any effect, whichever thread makes it.
+    public static synchronized void setAllCoordinates(int max) {
         if (!isSet) {
             size = max;
             allCoordinates = new Coord[max][max];
+            coordsBySquare = new Coord[max * max];
             for (int i = 0; i < max; i++) {
                 for (int j = 0; j < max; j++) {
                     allCoordinates[i][j] = new Coord(i, j);
+                    coordsBySquare[i * max + j] = allCoordinates[i][j];
                 }
             }
+            coordList = Collections.unmodifiableList(Arrays.asList(coordsBySquare));
+            fillSquareTables();
             isSet = true;
         }
     }
 
+    private static void fillSquareTables() {
+        int squares = size * size;
+        neighborSquares = new int[squares][NUM_DIRECTIONS];
+        neighborLists = new ArrayList<>(squares);
+        corners = new boolean[squares];
+        centers = new boolean[squares];
+        centersOrNeighborCenters = new boolean[squares];
+        cornerDistances = new int[squares];
+        for (int square = 0; square < squares; square++) {
+            int x = square / size;
+            int y = square % size;
+            List<Coord> neighbors = new ArrayList<>();
+            for (int d = 0; d < NUM_DIRECTIONS; d++) {
+                int nx = x + DX[d];
+                int ny = y + DY[d];
+                boolean onBoard = nx >= 0 && nx < size && ny >= 0 && ny < size;
+                neighborSquares[square][d] = onBoard ? nx * size + ny : -1;
+            }
+            // Keep the order getNeighbors has always used: -x, -y, +x, +y.
+            for (int d = 0; d < NUM_DIRECTIONS; d++) {
+                if (neighborSquares[square][d] >= 0)
+                    neighbors.add(coordsBySquare[neighborSquares[square][d]]);
+            }
+            neighborLists.add(Collections.unmodifiableList(neighbors));
+            corners[square] = isCorner(x, y);
+            centers[square] = isCenter(x, y);
+            centersOrNeighborCenters[square] = isCenterOrNeighborCenter(x, y);
+            cornerDistances[square] = Math.min(x, size - 1 - x) + Math.min(y, size - 1 - y);
+        }
+    }
+
     public static Coord get(int i, int j) {
         return allCoordinates[i][j];
     }
 
+    /* ----- Int square versions. ----- */
+    public static Coord get(int square) {
+        return coordsBySquare[square];
+    }
+
+    public static int square(int i, int j) {
+        return i * size + j;
+    }
+
+    public static int squareOf(Coord c) {
+        return c.x * size + c.y;
+    }
+
+    public static int squareX(int square) {
+        return square / size;
+    }
+
+    public static int squareY(int square) {
+        return square % size;
+    }
+
+    public static int getSize() {
+        return size;
+    }
+
+    // The square next to the given one in the given direction, or -1 if there is
+    // none.
+    public static int neighbor(int square, int direction) {
+        return neighborSquares[square][direction];
+    }
+
+    // The square with which a sandwich would be made around "middle" using
+    // "front", or -1 if they are not adjacent or it would be off the board.
+    public static int sandwichSquare(int front, int middle) {
+        for (int d = 0; d < NUM_DIRECTIONS; d++) {
+            if (neighborSquares[front][d] == middle)
+                return neighborSquares[middle][d];
+        }
+        return -1;
+    }
+
+    public static boolean isCorner(int square) {
+        return corners[square];
+    }
+
+    public static boolean isCenter(int square) {
+        return centers[square];
+    }
+
+    public static boolean isCenterOrNeighborCenter(int square) {
+        return centersOrNeighborCenters[square];
+    }
+
+    public static int distanceToClosestCorner(int square) {
+        return cornerDistances[square];
+    }
+
+    /* ----- Coord and (x, y) versions. ----- */
     public static boolean isCorner(Coord c) {
-        return isCorner(c.x, c.y);
+        return isCorner(squareOf(c));
     }
 
     public static boolean isCorner(int i, int j) { // Very efficient way to check if something is a corner.
@@ -41,106 +162,52 @@ public class Coordinates {
     }
 
     public static boolean isCenterOrNeighborCenter(Coord c) {
-        return isCenterOrNeighborCenter(c.x, c.y);
+        return isCenterOrNeighborCenter(squareOf(c));
     }
 
     public static boolean isCenterOrNeighborCenter(int x, int y) {
-        if (!(x == 4 || y == 4))
+        int middle = size / 2;
+        if (!(x == middle || y == middle))
             return false;
         return Math.abs(x - y) <= 1;
     }
 
     public static boolean isCenter(Coord c) {
-        return isCenter(c.x, c.y);
+        return isCenter(squareOf(c));
     }
 
     public static boolean isCenter(int x, int y) {
-        return x == 4 && y == 4;
+        return x == size / 2 && y == size / 2;
     }
 
     public static List<Coord> getCorners() {
         return Arrays.asList(get(0, 0), get(0, size - 1), get(size - 1, 0), get(size - 1, size - 1));
     }
 
+    // The returned list is shared, so it cannot be modified.
     public static List<Coord> getNeighbors(Coord c) {
-        List<Coord> neighbors = new ArrayList<>();
-        for (int incr : Arrays.asList(-1, 1)) {
-            try {
-                neighbors.add(get(c.x + incr, c.y));
-            } catch (IndexOutOfBoundsException e) {
-            }
-            try {
-                neighbors.add(get(c.x, c.y + incr));
-            } catch (IndexOutOfBoundsException e) {
-            }
-        }
-        return neighbors;
+        return neighborLists.get(squareOf(c));
     }
 
     // Returns the coordinate with which a sandwich would be made around "middle",
     // using "front".
     public static Coord getSandwichCoord(Coord front, Coord middle) throws CoordinateDoesNotExistException {
-        int xDiff = front.x - middle.x;
-        int yDiff = front.y - middle.y;
-        if (xDiff * yDiff != 0 || xDiff + yDiff == 0) {
-            throw new CoordinateDoesNotExistException(
-                    "These coordinates are not adjacent: " + front.toString() + " and " + middle.toString());
-        }
-        try {
-            Coord back = get(middle.x - xDiff, middle.y - yDiff);
-            return back;
-        } catch (IndexOutOfBoundsException e) {
-            throw new CoordinateDoesNotExistException("The sandwich coordinate would be off the board.");
+        int back = sandwichSquare(squareOf(front), squareOf(middle));
+        if (back < 0) {
+            throw new CoordinateDoesNotExistException("There is no sandwich coordinate behind " + middle.toString()
+                    + " from " + front.toString() + ": they are not adjacent or it would be off the board.");
         }
+        return get(back);
     }
 
     // Given a coordinate, returns the distance between it and the closest corner.
     public static int distanceToClosestCorner(Coord kingPos) {
-        List<Coord> corners = getCorners();
-        int minDistance = Integer.MAX_VALUE;
-        for (Coord corner : corners) {
-            int distance = kingPos.distance(corner);
-            if (distance < minDistance) {
-                minDistance = distance;
-            }
-        }
-        return minDistance;
+        return distanceToClosestCorner(squareOf(kingPos));
     }
 
-    // Lol at the insanity of OOP, two anonymous classes just to iterate!
+    // All coords, row by row. The list is shared, so it cannot be modified.
     public static Iterable<Coord> iterCoordinates() {
-        return new Iterable<Coord>() {
-            @Override
-            public Iterator<Coord> iterator() {
-                return new Iterator<Coord>() {
-                    private int i = 0;
-                    private int j = 0;
-
-                    @Override
-                    public boolean hasNext() {
-                        return i != size;
-                    }
-
-                    @Override
-                    public Coord next() {
-                        int iOld = i;
-                        int jOld = j;
-
-                        // Now update i and j for the next boy.
-                        j += 1;
-                        if (j == size) {
-                            j = 0;
-                            i += 1;
-                        }
-                        return allCoordinates[iOld][jOld];
-                    }
-
-                    @Override
-                    public void remove() {
-                    }
-                };
-            }
-        };
+        return coordList;
     }
 
     // useful exception
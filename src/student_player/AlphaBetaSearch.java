@@ -0,0 +1,370 @@
+package student_player;
+
+import boardgame.Server;
+import tablut.Evaluator;
+import tablut.LinearEvaluator;
+import tablut.StagedMoveGenerator;
+import tablut.TablutBoardState;
+import tablut.TablutMove;
+
+/**
+ * An iterative-deepening negamax search with alpha-beta pruning, for choosing
+ * moves within the server's time limit.
+ *
+ * Each iteration searches one ply deeper than the last, starting from the best
+ * move found so far, so whenever time runs out there is a move from the deepest
+ * finished iteration to play. Within an iteration:
+ * - results are kept in a TranspositionTable, which cuts off positions already
+ *   searched deeply enough and gives the move to try first in the others;
+ * - moves come from a StagedMoveGenerator per ply, with the table's move (or
+ *   failing that, the move of the last principal variation, PV) tried first;
+ * - after the first move of a node, the others are searched with a null window
+ *   (principal-variation search) and only searched again if they beat it;
+ * - from ASPIRATION_DEPTH on, the root is searched with a window around the
+ *   score of the last iteration, widened to the full window if the score falls
+ *   outside it;
+ * - the leaves are extended by a quiescence search over the noisy moves of the
+ *   state (captures and king runs), so they are not scored in the middle of an
+ *   exchange.
+ *
+ * Moves are played in place on a clone of the given state. A search object is
+ * not thread-safe, but can be reused from one move to the next; the table is
+ * kept from one move to the next too.
+ */
+public class AlphaBetaSearch {
+    public static final int MAX_PLY = 64;
+    public static final int TIME_MARGIN = 300; // ms kept back for the round trip to the server
+
+    private static final int INFINITY = Evaluator.WIN_SCORE + 1;
+    private static final int WIN_BOUND = Evaluator.WIN_SCORE - MAX_PLY; // any score past this is a forced result
+    private static final int ASPIRATION_DEPTH = 3;
+    private static final int ASPIRATION_WINDOW = 50;
+    private static final int MAX_QUIESCENCE_PLY = 8; // how far quiescence may go below the leaves
+    private static final int NODES_PER_TIME_CHECK = 1024;
+
+    private final Evaluator evaluator;
+    private final TranspositionTable table;
+    private final StagedMoveGenerator[] generators = new StagedMoveGenerator[MAX_PLY];
+    private final int[][] noisyMoves = new int[MAX_PLY][TablutBoardState.MAX_LEGAL_MOVES];
+    private final int[] rootMoves = new int[TablutBoardState.MAX_LEGAL_MOVES];
+    private int rootMoveCount;
+
+    // Triangular PV table: pv[ply] holds the best line found from that ply on.
+    private final int[][] pv = new int[MAX_PLY][MAX_PLY];
+    private final int[] pvLength = new int[MAX_PLY];
+    private final int[] lastPv = new int[MAX_PLY];
+    private int lastPvLength;
+
+    private TablutBoardState state;
+    private long deadline;
+    private volatile boolean stopped;
+    private boolean aborted;
+    private long nodes;
+    private int timeCheckCountdown;
+
+    // Results of the last search.
+    private int bestMove = StagedMoveGenerator.NONE;
+    private int bestScore;
+    private int completedDepth;
+
+    public AlphaBetaSearch() {
+        this(new LinearEvaluator());
+    }
+
+    public AlphaBetaSearch(Evaluator evaluator) {
+        this(evaluator, new TranspositionTable());
+    }
+
+    public AlphaBetaSearch(Evaluator evaluator, TranspositionTable table) {
+        this.evaluator = evaluator;
+        this.table = table;
+        for (int i = 0; i < MAX_PLY; i++)
+            generators[i] = new StagedMoveGenerator();
+    }
+
+    /**
+     * Searches the state for at most the server's move timeout (less
+     * TIME_MARGIN) and returns the best move found, or null if the game is over.
+     */
+    public TablutMove findMove(TablutBoardState boardState) {
+        return findMove(boardState, Server.DEFAULT_TIMEOUT - TIME_MARGIN, MAX_PLY - 1);
+    }
+
+    /**
+     * Searches the state until the time limit (in ms) runs out or the given depth
+     * is finished, and returns the best move found, or null if the game is over.
+     * At least one legal move is always returned for an ongoing game, even if no
+     * iteration had the time to finish.
+     */
+    public TablutMove findMove(TablutBoardState boardState, long timeLimit, int maxDepth) {
+        stopped = false;
+        table.newSearch();
+        return search(boardState, System.nanoTime() + timeLimit * 1000000L, 1, maxDepth);
+    }
+
+    /**
+     * The search behind findMove, for LazySmpSearch: iterates from firstDepth to
+     * maxDepth (or until System.nanoTime() reaches the deadline, or stop is
+     * called). It leaves the table's generation alone.
+     */
+    TablutMove search(TablutBoardState boardState, long deadline, int firstDepth, int maxDepth) {
+        this.deadline = deadline;
+        state = (TablutBoardState) boardState.clone();
+        aborted = false;
+        nodes = 0;
+        completedDepth = 0;
+        bestScore = 0;
+        bestMove = StagedMoveGenerator.NONE;
+        lastPvLength = 0;
+        if (state.gameOver())
+            return null;
+
+        // The root moves, in the order of the move generator. A move is found for
+        // sure before any time check can abort the search.
+        rootMoveCount = 0;
+        StagedMoveGenerator generator = generators[0];
+        generator.reset(state, StagedMoveGenerator.NONE);
+        for (int move = generator.next(); move != StagedMoveGenerator.NONE; move = generator.next())
+            rootMoves[rootMoveCount++] = move;
+        bestMove = rootMoves[0];
+        if (rootMoveCount == 1)
+            return TablutMove.fromPacked(bestMove);
+
+        maxDepth = Math.min(maxDepth, MAX_PLY - 1);
+        for (int depth = firstDepth; depth <= maxDepth; depth++) {
+            int score = aspirationSearch(depth);
+            if (aborted) {
+                // A root move that beat the first one of an unfinished iteration was
+                // searched in full, so it is still worth playing.
+                if (pvLength[0] > 0 && pv[0][0] != bestMove)
+                    bestMove = pv[0][0];
+                break;
+            }
+            bestScore = score;
+            completedDepth = depth;
+            bestMove = pv[0][0];
+            lastPvLength = pvLength[0];
+            System.arraycopy(pv[0], 0, lastPv, 0, lastPvLength);
+            moveToFront(bestMove);
+            // No need to look deeper once the result is forced.
+            if (Math.abs(score) > WIN_BOUND)
+                break;
+        }
+        return TablutMove.fromPacked(bestMove);
+    }
+
+    /* Statistics on the last search. */
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    public int getBestScore() {
+        return bestScore;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    // Searches the root with a window around the last score, widening it on a fail.
+    private int aspirationSearch(int depth) {
+        if (depth < ASPIRATION_DEPTH || Math.abs(bestScore) > WIN_BOUND)
+            return searchRoot(depth, -INFINITY, INFINITY);
+        int alpha = bestScore - ASPIRATION_WINDOW;
+        int beta = bestScore + ASPIRATION_WINDOW;
+        int score = searchRoot(depth, alpha, beta);
+        if (!aborted && (score <= alpha || score >= beta))
+            score = searchRoot(depth, -INFINITY, INFINITY);
+        return score;
+    }
+
+    private int searchRoot(int depth, int alpha, int beta) {
+        pvLength[0] = 0;
+        int best = -INFINITY;
+        for (int i = 0; i < rootMoveCount; i++) {
+            int move = rootMoves[i];
+            long undo = state.applyMove(move);
+            int score;
+            if (i == 0) {
+                score = -search(depth - 1, 1, -beta, -alpha, true);
+            } else {
+                score = -search(depth - 1, 1, -alpha - 1, -alpha, false);
+                if (score > alpha && score < beta && !aborted)
+                    score = -search(depth - 1, 1, -beta, -alpha, false);
+            }
+            state.undoMove(undo);
+            if (aborted)
+                return best;
+
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    updatePv(0, move);
+                    if (score >= beta)
+                        break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /*
+     * The negamax search below the root. Scores are from the point of view of the
+     * side to move. "onPv" is set while the moves played so far are those of the
+     * last iteration's PV, whose next move is then tried first.
+     */
+    private int search(int depth, int ply, int alpha, int beta, boolean onPv) {
+        pvLength[ply] = 0;
+        if (state.gameOver())
+            return terminalScore(ply);
+        if (state.isRepetition())
+            return 0;
+        if (depth <= 0 || ply >= MAX_PLY - 1)
+            return quiescence(ply, alpha, beta, 0);
+        if (checkTime())
+            return 0;
+
+        // Off the PV, a result of a deep enough search ends the node if its bound allows.
+        long key = state.getHashKey();
+        long entry = table.probe(key);
+        int hashMove = StagedMoveGenerator.NONE;
+        if (entry != 0) {
+            hashMove = TranspositionTable.getMove(entry);
+            int score = TranspositionTable.scoreFromTable(TranspositionTable.getScore(entry), ply);
+            int bound = TranspositionTable.getBound(entry);
+            if (!onPv && TranspositionTable.getDepth(entry) >= depth
+                    && (bound == TranspositionTable.BOUND_EXACT
+                            || (bound == TranspositionTable.BOUND_LOWER && score >= beta)
+                            || (bound == TranspositionTable.BOUND_UPPER && score <= alpha)))
+                return score;
+        }
+        if (onPv && ply < lastPvLength)
+            hashMove = lastPv[ply];
+        else if (hashMove < 0)
+            hashMove = StagedMoveGenerator.NONE;
+
+        StagedMoveGenerator generator = generators[ply];
+        generator.reset(state, hashMove);
+        int originalAlpha = alpha;
+        int bestMoveHere = StagedMoveGenerator.NONE;
+        int best = -INFINITY;
+        int searched = 0;
+        for (int move = generator.next(); move != StagedMoveGenerator.NONE; move = generator.next()) {
+            long undo = state.applyMove(move);
+            int score;
+            if (searched == 0) {
+                score = -search(depth - 1, ply + 1, -beta, -alpha, onPv && move == hashMove);
+            } else {
+                score = -search(depth - 1, ply + 1, -alpha - 1, -alpha, false);
+                if (score > alpha && score < beta && !aborted)
+                    score = -search(depth - 1, ply + 1, -beta, -alpha, false);
+            }
+            state.undoMove(undo);
+            if (aborted)
+                return 0;
+            searched++;
+
+            if (score > best) {
+                best = score;
+                bestMoveHere = move;
+                if (score > alpha) {
+                    alpha = score;
+                    updatePv(ply, move);
+                    if (score >= beta)
+                        break;
+                }
+            }
+        }
+
+        int bound = (best >= beta) ? TranspositionTable.BOUND_LOWER
+                : (best > originalAlpha) ? TranspositionTable.BOUND_EXACT : TranspositionTable.BOUND_UPPER;
+        // A fail-low node has no move known to be best.
+        table.store(key, (bound == TranspositionTable.BOUND_UPPER) ? StagedMoveGenerator.NONE : bestMoveHere,
+                TranspositionTable.scoreToTable(best, ply), depth, bound);
+        return best;
+    }
+
+    // Only follows the noisy moves, so that leaves are not scored mid-exchange.
+    private int quiescence(int ply, int alpha, int beta, int quiescencePly) {
+        if (checkTime())
+            return 0;
+        if (state.gameOver())
+            return terminalScore(ply);
+        int standPat = evaluator.evaluate(state);
+        if (standPat >= beta || quiescencePly >= MAX_QUIESCENCE_PLY || ply >= MAX_PLY - 1)
+            return standPat;
+        if (standPat > alpha)
+            alpha = standPat;
+
+        int[] moves = noisyMoves[ply];
+        int count = state.getNoisyMoves(moves);
+        int best = standPat;
+        for (int i = 0; i < count; i++) {
+            long undo = state.applyMove(moves[i]);
+            int score = -quiescence(ply + 1, -beta, -alpha, quiescencePly + 1);
+            state.undoMove(undo);
+            if (aborted)
+                return 0;
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    if (score >= beta)
+                        break;
+                }
+            }
+        }
+        return best;
+    }
+
+    // Wins found sooner score higher, and losses later, so the search goes for the quickest win.
+    private int terminalScore(int ply) {
+        int score = evaluator.evaluate(state);
+        if (score >= Evaluator.WIN_SCORE)
+            return score - ply;
+        if (score <= -Evaluator.WIN_SCORE)
+            return score + ply;
+        return score;
+    }
+
+    private void updatePv(int ply, int move) {
+        pv[ply][0] = move;
+        int childLength = (ply + 1 < MAX_PLY) ? pvLength[ply + 1] : 0;
+        System.arraycopy(pv[ply + 1], 0, pv[ply], 1, childLength);
+        pvLength[ply] = childLength + 1;
+    }
+
+    /*
+     * Makes a search running in another thread stop at its next time check, as if
+     * its time were up. The flag stays set until the next findMove or resume.
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    void resume() {
+        stopped = false;
+    }
+
+    // Counts the node, and every so often checks whether the time is up.
+    private boolean checkTime() {
+        nodes++;
+        if (--timeCheckCountdown <= 0) {
+            timeCheckCountdown = NODES_PER_TIME_CHECK;
+            if (stopped || System.nanoTime() >= deadline)
+                aborted = true;
+        }
+        return aborted;
+    }
+
+    private void moveToFront(int move) {
+        for (int i = 0; i < rootMoveCount; i++) {
+            if (rootMoves[i] == move) {
+                System.arraycopy(rootMoves, 0, rootMoves, 1, i);
+                rootMoves[0] = move;
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package student_player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import boardgame.Server;
+import tablut.LinearEvaluator;
+import tablut.TablutBoardState;
+import tablut.TablutMove;
+
+/**
+ * Runs several AlphaBetaSearch threads on the same position ("Lazy SMP").
+ *
+ * The threads do not split the tree between them. Each one searches the whole
+ * root on its own, but they all share one TranspositionTable, so what one thread
+ * finds saves the others the work. Half of the helper threads start one ply
+ * deeper than the main thread, so the threads are mostly at different depths and
+ * take different paths through the table.
+ *
+ * The main thread is the caller's. When it is done (its time is up, or it has
+ * finished the deepest iteration asked for), the helpers are stopped, and the
+ * move of the deepest iteration any thread finished is played, the main
+ * thread's winning ties.
+ */
+public class LazySmpSearch {
+    private final TranspositionTable table;
+    private final AlphaBetaSearch[] workers; // workers[0] runs in the caller's thread
+    private final ExecutorService helpers;
+    private long nodes;
+    private int completedDepth;
+
+    // A search with defaultThreads() threads.
+    public LazySmpSearch() {
+        this(defaultThreads(), TranspositionTable.DEFAULT_SIZE_MB);
+    }
+
+    /**
+     * A guess at the number of physical cores: half the logical CPUs that
+     * availableProcessors reports, as most machines run two hardware threads per
+     * core, and a second search thread on the same core adds little. At least 1.
+     */
+    public static int defaultThreads() {
+        return Math.max(Runtime.getRuntime().availableProcessors() / 2, 1);
+    }
+
+    public LazySmpSearch(int threads, int tableSizeMb) throws IllegalArgumentException {
+        if (threads < 1)
+            throw new IllegalArgumentException("A search needs at least one thread: " + threads);
+        table = new TranspositionTable(tableSizeMb);
+        workers = new AlphaBetaSearch[threads];
+        // Each worker gets its own evaluator, as LinearEvaluator keeps a buffer.
+        for (int i = 0; i < threads; i++)
+            workers[i] = new AlphaBetaSearch(new LinearEvaluator(), table);
+        helpers = (threads > 1) ? Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "LazySmpSearch helper");
+                thread.setDaemon(true); // so a forgotten search never keeps the client alive
+                return thread;
+            }
+        }) : null;
+    }
+
+    public int getThreads() {
+        return workers.length;
+    }
+
+    /**
+     * Searches the state for at most the server's move timeout (less
+     * AlphaBetaSearch.TIME_MARGIN); see findMove(TablutBoardState, long, int).
+     */
+    public TablutMove findMove(TablutBoardState boardState) {
+        return findMove(boardState, Server.DEFAULT_TIMEOUT - AlphaBetaSearch.TIME_MARGIN, AlphaBetaSearch.MAX_PLY - 1);
+    }
+
+    /**
+     * Searches the state with every thread until the time limit (in ms) runs out
+     * or the main thread finishes the given depth, and returns the move of the
+     * deepest finished iteration, or null if the game is over.
+     */
+    public TablutMove findMove(final TablutBoardState boardState, long timeLimit, final int maxDepth) {
+        final long deadline = System.nanoTime() + timeLimit * 1000000L;
+        table.newSearch();
+        for (AlphaBetaSearch worker : workers)
+            worker.resume();
+
+        List<Future<TablutMove>> results = new ArrayList<>();
+        for (int i = 1; i < workers.length; i++) {
+            final AlphaBetaSearch worker = workers[i];
+            final int firstDepth = 1 + (i % 2);
+            // Each search plays on its own clone; taking one only reads the state.
+            results.add(helpers.submit(new Callable<TablutMove>() {
+                @Override
+                public TablutMove call() {
+                    return worker.search(boardState, deadline, firstDepth, maxDepth);
+                }
+            }));
+        }
+
+        TablutMove best = workers[0].search(boardState, deadline, 1, maxDepth);
+        completedDepth = workers[0].getCompletedDepth();
+        nodes = workers[0].getNodes();
+        for (int i = 1; i < workers.length; i++)
+            workers[i].stop();
+
+        for (int i = 1; i < workers.length; i++) {
+            TablutMove move;
+            try {
+                move = results.get(i - 1).get();
+            } catch (InterruptedException | ExecutionException e) {
+                System.err.println("Helper search " + i + " failed: " + e);
+                continue;
+            }
+            AlphaBetaSearch worker = workers[i];
+            nodes += worker.getNodes();
+            if (move != null && worker.getCompletedDepth() > completedDepth) {
+                best = move;
+                completedDepth = worker.getCompletedDepth();
+            }
+        }
+        return best;
+    }
+
+    /* Statistics on the last search, over all threads. */
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    // Stops the helper threads for good. The search cannot be used afterwards.
+    public void shutdown() {
+        if (helpers != null)
+            helpers.shutdownNow();
+    }
+}
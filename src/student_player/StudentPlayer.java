@@ -6,6 +6,11 @@ import tablut.TablutPlayer;
 
 /** A player file submitted by a student. */
 public class StudentPlayer extends TablutPlayer {
+    // The number of search threads, e.g. java -Dstudent_player.threads=4 (see LazySmpSearch.defaultThreads).
+    private static final int THREADS = Integer.getInteger("student_player.threads", LazySmpSearch.defaultThreads());
+
+    // Created on the first move, so that constructing the player stays cheap.
+    private LazySmpSearch search;
 
     /**
      * You must modify this constructor to return your student number. This is
@@ -22,13 +27,11 @@ public class StudentPlayer extends TablutPlayer {
      * make decisions.
      */
     public Move chooseMove(TablutBoardState boardState) {
-        // You probably will make separate functions in MyTools.
-        // For example, maybe you'll need to load some pre-processed best opening
-        // strategies...
-        MyTools.getSomething();
+        if (search == null)
+            search = new LazySmpSearch(Math.max(THREADS, 1), TranspositionTable.DEFAULT_SIZE_MB);
 
-        // Is random the best you can do?
-        Move myMove = boardState.getRandomMove();
+        // Search for as long as the server allows, on every thread (see LazySmpSearch).
+        Move myMove = search.findMove(boardState);
 
         // Return your move to be processed by the server.
         return myMove;
@@ -0,0 +1,185 @@
+package student_player;
+
+import java.util.Arrays;
+
+import tablut.Evaluator;
+import tablut.TablutMove;
+
+/**
+ * A fixed-size transposition table: the results of earlier searches, by the
+ * hash key of the position (TablutBoardState.getHashKey).
+ *
+ * The table is a single preallocated long[], with no objects per entry. An
+ * entry is two longs: the key XORed with the data, then the data itself. The
+ * data packs the best move, the score, the search depth, the bound type and the
+ * search generation (see the *_SHIFT constants). A probe only accepts an entry
+ * whose two words XOR back to the key, so an entry that another thread was
+ * halfway through writing reads as a miss rather than as wrong data. This lets
+ * several search threads share one table without locking. It relies on single
+ * long writes being atomic, which the 64-bit JVMs the course uses guarantee.
+ *
+ * Entries come in buckets of two. The first slot keeps the deepest result (and
+ * is given up to results of a newer search), the second always takes whatever
+ * the first slot turned down, so recent positions are never lost entirely.
+ */
+public class TranspositionTable {
+    public static final int DEFAULT_SIZE_MB = 64;
+
+    // Bound types.
+    public static final int BOUND_NONE = 0;
+    public static final int BOUND_UPPER = 1; // the score is at most the stored one (fail low)
+    public static final int BOUND_LOWER = 2; // the score is at least the stored one (fail high)
+    public static final int BOUND_EXACT = 3;
+
+    /* Layout of the data word. A data word of 0 is never stored, so 0 means a miss. */
+    private static final int MOVE_BITS = 15; // a packed TablutMove
+    private static final int SCORE_SHIFT = MOVE_BITS;
+    private static final int SCORE_BITS = 22; // enough for +-(WIN_SCORE + 1)
+    private static final int DEPTH_SHIFT = SCORE_SHIFT + SCORE_BITS;
+    private static final int DEPTH_BITS = 7;
+    private static final int BOUND_SHIFT = DEPTH_SHIFT + DEPTH_BITS;
+    private static final int GENERATION_SHIFT = BOUND_SHIFT + 2;
+    private static final int GENERATION_BITS = 8;
+    private static final int VALID_SHIFT = GENERATION_SHIFT + GENERATION_BITS;
+    private static final int NO_MOVE = (1 << MOVE_BITS) - 1;
+
+    private static final int LONGS_PER_ENTRY = 2;
+    private static final int ENTRIES_PER_BUCKET = 2;
+    private static final int LONGS_PER_BUCKET = LONGS_PER_ENTRY * ENTRIES_PER_BUCKET;
+
+    private final long[] table;
+    private final long bucketMask;
+    private int generation;
+
+    public TranspositionTable() {
+        this(DEFAULT_SIZE_MB);
+    }
+
+    /**
+     * Allocates a table of at most the given size in megabytes, rounded down to a
+     * power of two buckets.
+     */
+    public TranspositionTable(int sizeMb) throws IllegalArgumentException {
+        if (sizeMb < 1)
+            throw new IllegalArgumentException("The table needs at least 1 MB: " + sizeMb);
+        long buckets = Long.highestOneBit(((long) sizeMb << 20) / (LONGS_PER_BUCKET * 8));
+        if (buckets * LONGS_PER_BUCKET > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("The table is too large: " + sizeMb + " MB");
+        table = new long[(int) (buckets * LONGS_PER_BUCKET)];
+        bucketMask = buckets - 1;
+    }
+
+    // The size of the table, in entries.
+    public int getCapacity() {
+        return table.length / LONGS_PER_ENTRY;
+    }
+
+    public void clear() {
+        Arrays.fill(table, 0L);
+        generation = 0;
+    }
+
+    /**
+     * Starts a new search. Entries of older searches are still probed, but are
+     * the first to be replaced.
+     */
+    public void newSearch() {
+        generation = (generation + 1) & ((1 << GENERATION_BITS) - 1);
+    }
+
+    /**
+     * Returns the data stored for the key, or 0 if there is none. Read it with
+     * the static getters (getMove, getScore and so on).
+     */
+    public long probe(long key) {
+        int index = bucketIndex(key);
+        for (int slot = 0; slot < ENTRIES_PER_BUCKET; slot++, index += LONGS_PER_ENTRY) {
+            long data = table[index + 1];
+            if ((table[index] ^ data) == key && data != 0)
+                return data;
+        }
+        return 0L;
+    }
+
+    /**
+     * Stores the result of a search of the given depth. The move is a packed
+     * TablutMove or -1 for none. Win scores should be relative to the stored
+     * position (see scoreToTable).
+     */
+    public void store(long key, int move, int score, int depth, int bound) {
+        int index = bucketIndex(key);
+        long data = pack(move, score, depth, bound, generation);
+
+        // Keep the deepest result in the first slot, unless it is from an older
+        // search or for the same position.
+        long deepData = table[index + 1];
+        boolean sameKey = (table[index] ^ deepData) == key;
+        if (deepData == 0 || sameKey || depth >= getDepth(deepData) || generationOf(deepData) != generation) {
+            // Keep the best move of the position if this result has none.
+            if (sameKey && move < 0)
+                data = (data & ~(long) NO_MOVE) | (deepData & NO_MOVE);
+            table[index] = key ^ data;
+            table[index + 1] = data;
+            return;
+        }
+        table[index + LONGS_PER_ENTRY] = key ^ data;
+        table[index + LONGS_PER_ENTRY + 1] = data;
+    }
+
+    /* Getters for the fields of a data word returned by probe. */
+    public static int getMove(long data) {
+        int move = (int) (data & NO_MOVE);
+        return (move == NO_MOVE) ? -1 : move;
+    }
+
+    public static int getScore(long data) {
+        // Sign-extend the score field.
+        return (int) (data << (64 - DEPTH_SHIFT) >> (64 - SCORE_BITS));
+    }
+
+    public static int getDepth(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & ((1 << DEPTH_BITS) - 1);
+    }
+
+    public static int getBound(long data) {
+        return (int) (data >>> BOUND_SHIFT) & 3;
+    }
+
+    /**
+     * Converts a score found at the given ply for storing. A win score is stored
+     * as the distance from the position itself rather than from the root, so it
+     * stays right when the position is reached along another path.
+     */
+    public static int scoreToTable(int score, int ply) {
+        if (score > Evaluator.WIN_SCORE - AlphaBetaSearch.MAX_PLY)
+            return score + ply;
+        if (score < -Evaluator.WIN_SCORE + AlphaBetaSearch.MAX_PLY)
+            return score - ply;
+        return score;
+    }
+
+    // The inverse of scoreToTable.
+    public static int scoreFromTable(int score, int ply) {
+        if (score > Evaluator.WIN_SCORE - AlphaBetaSearch.MAX_PLY)
+            return score - ply;
+        if (score < -Evaluator.WIN_SCORE + AlphaBetaSearch.MAX_PLY)
+            return score + ply;
+        return score;
+    }
+
+    private static long pack(int move, int score, int depth, int bound, int generation) {
+        long packedMove = (move < 0 || move >= TablutMove.NUM_PACKED_IDS) ? NO_MOVE : move;
+        return packedMove | ((score & ((1L << SCORE_BITS) - 1)) << SCORE_SHIFT)
+                | ((long) Math.min(depth, (1 << DEPTH_BITS) - 1) << DEPTH_SHIFT) | ((long) bound << BOUND_SHIFT)
+                | ((long) generation << GENERATION_SHIFT) | (1L << VALID_SHIFT);
+    }
+
+    private static int generationOf(long data) {
+        return (int) (data >>> GENERATION_SHIFT) & ((1 << GENERATION_BITS) - 1);
+    }
+
+    // The first index of the key's bucket. Zobrist keys are random enough to use as they are.
+    private int bucketIndex(long key) {
+        return (int) (key & bucketMask) * LONGS_PER_BUCKET;
+    }
+}
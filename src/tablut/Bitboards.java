@@ -0,0 +1,117 @@
+package tablut;
+
+import coordinates.Coordinates;
+
+/**
+ * Static helpers for the 81-bit occupancy masks used by TablutBoardState.
+ *
+ * Squares are numbered as by Coordinates.square: x * BOARD_SIZE + y, the
+ * same order in which Coordinates.iterCoordinates() visits the board. A mask is split over two
+ * longs: the low word holds rows 0 to 6 (squares 0 to 62) and the high word
+ * holds rows 7 and 8 (squares 63 to 80). Splitting at 63 rather than 64 means
+ * a row never straddles the two words.
+ *
+ * Sliding moves are looked up rather than walked: the occupancy of a single row
+ * or column is a 9-bit pattern, and slide(position, occupancy) gives the 9-bit
+ * pattern of the squares a piece at that position can reach along the line.
+ * Columns are read as the rows of a transposed mask, where square (x, y) is
+ * stored at square (y, x).
+ */
+public final class Bitboards {
+    public static final int SIZE = TablutBoardState.BOARD_SIZE;
+    public static final int SQUARES = SIZE * SIZE;
+    public static final int LO_SQUARES = 7 * SIZE; // the number of squares held in the low word
+    public static final long LO_MASK = (1L << LO_SQUARES) - 1;
+    public static final long HI_MASK = (1L << (SQUARES - LO_SQUARES)) - 1;
+    public static final int LINE_MASK = (1 << SIZE) - 1;
+
+    // The first and last columns, laid out for either word.
+    private static final long FIRST_COLUMN;
+    private static final long LAST_COLUMN;
+    static {
+        long first = 0;
+        for (int x = 0; x < 7; x++)
+            first |= 1L << (x * SIZE);
+        FIRST_COLUMN = first;
+        LAST_COLUMN = first << (SIZE - 1);
+    }
+
+    // The squares on the edge of the board, and the corners.
+    public static final long EDGE_LO = LINE_MASK | ((FIRST_COLUMN | LAST_COLUMN) & LO_MASK);
+    public static final long EDGE_HI = ((long) LINE_MASK << SIZE) | ((FIRST_COLUMN | LAST_COLUMN) & HI_MASK);
+    public static final long CORNERS_LO = 1L | (1L << (SIZE - 1));
+    public static final long CORNERS_HI = (1L << SIZE) | (1L << (2 * SIZE - 1));
+
+    // Reachable positions along a line, indexed by [position][occupancy of the line].
+    private static final int[][] slides = new int[SIZE][1 << SIZE];
+    private static final int[] transposed = new int[SQUARES];
+    static {
+        for (int position = 0; position < SIZE; position++) {
+            for (int occupancy = 0; occupancy <= LINE_MASK; occupancy++) {
+                int reachable = 0;
+                for (int i = position - 1; i >= 0 && (occupancy & (1 << i)) == 0; i--)
+                    reachable |= 1 << i;
+                for (int i = position + 1; i < SIZE && (occupancy & (1 << i)) == 0; i++)
+                    reachable |= 1 << i;
+                slides[position][occupancy] = reachable;
+            }
+        }
+        Coordinates.setAllCoordinates(SIZE);
+        for (int square = 0; square < SQUARES; square++) {
+            transposed[square] = Coordinates.square(Coordinates.squareY(square), Coordinates.squareX(square));
+        }
+    }
+
+    private Bitboards() {
+    }
+
+    // The square mirrored about the main diagonal, i.e. (x, y) becomes (y, x).
+    public static int transpose(int square) {
+        return transposed[square];
+    }
+
+    // The 9-bit occupancy of row x of a mask; bit i is square (x, i).
+    public static int row(long lo, long hi, int x) {
+        if (x < 7)
+            return (int) (lo >>> (x * SIZE)) & LINE_MASK;
+        return (int) (hi >>> ((x - 7) * SIZE)) & LINE_MASK;
+    }
+
+    // The positions a piece at the given position can slide to along a line with
+    // the given occupancy. The piece's own bit in the occupancy is ignored.
+    public static int slide(int position, int occupancy) {
+        return slides[position][occupancy];
+    }
+
+    // The part of a single-square mask that lives in the low word.
+    public static long loBit(int square) {
+        return (square < LO_SQUARES) ? 1L << square : 0L;
+    }
+
+    // The part of a single-square mask that lives in the high word.
+    public static long hiBit(int square) {
+        return (square < LO_SQUARES) ? 0L : 1L << (square - LO_SQUARES);
+    }
+
+    public static boolean isSet(long lo, long hi, int square) {
+        if (square < LO_SQUARES)
+            return (lo & (1L << square)) != 0;
+        return (hi & (1L << (square - LO_SQUARES))) != 0;
+    }
+
+    // Low word of the squares orthogonally adjacent to any square of the mask.
+    public static long neighborsLo(long lo, long hi) {
+        long sideways = ((lo << 1) & ~FIRST_COLUMN) | ((lo >>> 1) & ~LAST_COLUMN);
+        return (sideways | (lo << SIZE) | (lo >>> SIZE) | ((hi & LINE_MASK) << (LO_SQUARES - SIZE))) & LO_MASK;
+    }
+
+    // High word of the squares orthogonally adjacent to any square of the mask.
+    public static long neighborsHi(long lo, long hi) {
+        long sideways = ((hi << 1) & ~FIRST_COLUMN) | ((hi >>> 1) & ~LAST_COLUMN);
+        return (sideways | (hi << SIZE) | (hi >>> SIZE) | (lo >>> (LO_SQUARES - SIZE))) & HI_MASK;
+    }
+
+    public static int count(long lo, long hi) {
+        return Long.bitCount(lo) + Long.bitCount(hi);
+    }
+}
@@ -0,0 +1,92 @@
+package tablut;
+
+/**
+ * Flood fills of the board, to tell when the muscovites have walled the swedes
+ * in.
+ *
+ * The swede region is every square a swede piece could ever get to if the
+ * muscovites stood still: the swede pieces themselves and the empty squares
+ * orthogonally connected to them, with the muscovites as the walls. It grows
+ * by whole masks at a time (Bitboards.neighborsLo/Hi), so a fill costs at most
+ * one step per square of the longest path, and usually far fewer.
+ *
+ * If neither the swede region nor the king's own region touches an edge, the
+ * king can never reach a corner without first capturing its way out; a search
+ * can treat such a sealed position as close to a muscovite win instead of
+ * playing it out to MAX_TURNS.
+ */
+public final class Encirclement {
+
+    private Encirclement() {
+    }
+
+    /**
+     * Writes the squares the swede pieces could reach (see above) into the
+     * caller's array as { lo, hi }, so a search can reuse one array for every
+     * node.
+     */
+    public static void swedeRegion(TablutBoardState state, long[] region) {
+        fill(state, TablutBoardState.SWEDE, 0L, 0L, region);
+    }
+
+    // The same for the king alone, starting from its square. Empty once it is captured.
+    public static void kingRegion(TablutBoardState state, long[] region) {
+        fill(state, -1, 0L, 0L, region);
+    }
+
+    public static boolean swedesReachEdge(TablutBoardState state) {
+        return fill(state, TablutBoardState.SWEDE, Bitboards.EDGE_LO, Bitboards.EDGE_HI, null);
+    }
+
+    public static boolean kingReachesEdge(TablutBoardState state) {
+        return fill(state, -1, Bitboards.EDGE_LO, Bitboards.EDGE_HI, null);
+    }
+
+    public static boolean kingReachesCorner(TablutBoardState state) {
+        return fill(state, -1, Bitboards.CORNERS_LO, Bitboards.CORNERS_HI, null);
+    }
+
+    /**
+     * Whether the king is sealed in: it cannot get to a corner through empty
+     * squares, whatever the swedes do, unless they capture a muscovite of the
+     * wall first.
+     */
+    public static boolean isKingSealed(TablutBoardState state) {
+        return state.getKingSquare() >= 0 && !kingReachesCorner(state);
+    }
+
+    /*
+     * Grows the player's pieces (or the king alone, for player -1) through the
+     * squares not held by muscovites. Returns true as soon as the region touches
+     * the target mask; otherwise grows it until it stops changing, writes it into
+     * "region" (if given) as { lo, hi } and returns false.
+     */
+    private static boolean fill(TablutBoardState state, int player, long targetLo, long targetHi, long[] region) {
+        long wallLo = state.getPlayerLo(TablutBoardState.MUSCOVITE);
+        long wallHi = state.getPlayerHi(TablutBoardState.MUSCOVITE);
+        long lo, hi;
+        if (player >= 0) {
+            lo = state.getPlayerLo(player);
+            hi = state.getPlayerHi(player);
+        } else {
+            int king = state.getKingSquare();
+            lo = (king >= 0) ? Bitboards.loBit(king) : 0;
+            hi = (king >= 0) ? Bitboards.hiBit(king) : 0;
+        }
+        while (true) {
+            if ((lo & targetLo) != 0 || (hi & targetHi) != 0)
+                return true;
+            long nextLo = (lo | Bitboards.neighborsLo(lo, hi)) & ~wallLo;
+            long nextHi = (hi | Bitboards.neighborsHi(lo, hi)) & ~wallHi;
+            if (nextLo == lo && nextHi == hi) {
+                if (region != null) {
+                    region[0] = lo;
+                    region[1] = hi;
+                }
+                return false;
+            }
+            lo = nextLo;
+            hi = nextHi;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package tablut;
+
+/**
+ * Scores tablut positions for a search.
+ *
+ * Scores are from the point of view of the player whose turn it is (higher is
+ * better for them), so a negamax search can use them as they are. Decided
+ * games score WIN_SCORE for the winner and -WIN_SCORE for the loser; every
+ * other score must stay strictly between the two.
+ */
+public interface Evaluator {
+    public static final int WIN_SCORE = 1000000;
+
+    public int evaluate(TablutBoardState state);
+}
@@ -0,0 +1,107 @@
+package tablut;
+
+import coordinates.Coordinates;
+
+/**
+ * A static exchange evaluator, after SEE in chess: estimates what a move wins
+ * or loses once the pieces it puts at risk have been fought over.
+ *
+ * After the move, the other side may capture the piece that just landed, the
+ * first side may capture the piece that captured it, and so on. Each side
+ * always recaptures with the move that takes the most, and either side may
+ * stop whenever carrying on would lose material. The result, in the units of
+ * PIECE_VALUE, is positive for a capture that wins material and negative for a
+ * landing that just gives a piece away.
+ *
+ * The sequence is played out on the state itself with applyMove and undoMove,
+ * so the state is left as it was found but must not be shared with other
+ * threads meanwhile. An instance keeps its own buffers and is not thread-safe.
+ */
+public class ExchangeEvaluator {
+    public static final int PIECE_VALUE = 100;
+    public static final int WIN_VALUE = 100 * PIECE_VALUE; // capturing the king or reaching a corner
+
+    private static final int MAX_EXCHANGES = 16;
+    private static final int NONE = -1;
+
+    private final int[] gains = new int[MAX_EXCHANGES + 1];
+    private final long[] undos = new long[MAX_EXCHANGES + 1];
+
+    /**
+     * The net gain of the packed move (see TablutMove.toPacked) for the player
+     * making it, after the best sequence of recaptures on the squares it lands on.
+     * The move must be legal.
+     */
+    public int evaluate(TablutBoardState state, int move) {
+        gains[0] = immediateGain(state, move);
+        undos[0] = state.applyMove(move);
+        int plies = 1;
+        int target = TablutMove.packedEnd(move);
+        while (!state.gameOver() && plies <= MAX_EXCHANGES) {
+            int reply = bestRecapture(state, target);
+            if (reply == NONE)
+                break;
+            gains[plies] = immediateGain(state, reply) - gains[plies - 1];
+            undos[plies++] = state.applyMove(reply);
+            target = TablutMove.packedEnd(reply);
+        }
+        for (int i = plies - 1; i >= 0; i--)
+            state.undoMove(undos[i]);
+
+        // Either side can stop: fold the sequence back from the end.
+        for (int depth = plies - 1; depth > 0; depth--)
+            gains[depth - 1] = -Math.max(-gains[depth - 1], gains[depth]);
+        return gains[0];
+    }
+
+    // What the move takes straight away, without looking at the replies.
+    private static int immediateGain(TablutBoardState state, int move) {
+        int from = TablutMove.packedStart(move);
+        int to = TablutMove.packedEnd(move);
+        if (from == state.getKingSquare() && Coordinates.isCorner(to))
+            return WIN_VALUE;
+        int captures = state.captureDirections(from, to);
+        int gain = 0;
+        for (int d = 0; d < Coordinates.NUM_DIRECTIONS; d++) {
+            if ((captures & (1 << d)) != 0)
+                gain += (Coordinates.neighbor(to, d) == state.getKingSquare()) ? WIN_VALUE : PIECE_VALUE;
+        }
+        return gain;
+    }
+
+    /*
+     * The move of the turn player that captures the piece on the target square
+     * and takes the most while doing so, or NONE. The capturing piece has to land
+     * next to the target; the pieces that can get there are found by walking
+     * outwards from the landing square.
+     */
+    private static int bestRecapture(TablutBoardState state, int target) {
+        int player = state.getTurnPlayer();
+        long emptyLo = ~(state.getPlayerLo(TablutBoardState.MUSCOVITE) | state.getPlayerLo(TablutBoardState.SWEDE))
+                & Bitboards.LO_MASK;
+        long emptyHi = ~(state.getPlayerHi(TablutBoardState.MUSCOVITE) | state.getPlayerHi(TablutBoardState.SWEDE))
+                & Bitboards.HI_MASK;
+        int best = NONE;
+        int bestGain = 0;
+        for (int d = 0; d < Coordinates.NUM_DIRECTIONS; d++) {
+            int landing = Coordinates.neighbor(target, d);
+            if (landing < 0 || !Bitboards.isSet(emptyLo, emptyHi, landing))
+                continue;
+            int towardsTarget = 1 << ((d + 2) % Coordinates.NUM_DIRECTIONS);
+            for (int e = 0; e < Coordinates.NUM_DIRECTIONS; e++) {
+                int from = TablutBoardState.firstPieceFrom(landing, e, emptyLo, emptyHi);
+                if (from < 0 || from == target)
+                    continue;
+                int move = TablutMove.pack(from, landing, player);
+                if (!state.isLegal(move) || (state.captureDirections(from, landing) & towardsTarget) == 0)
+                    continue;
+                int gain = immediateGain(state, move);
+                if (gain > bestGain) {
+                    best = move;
+                    bestGain = gain;
+                }
+            }
+        }
+        return best;
+    }
+}
@@ -33,15 +33,9 @@ public class GreedyTablutPlayer extends TablutPlayer {
 
         // Iterate over move options and evaluate them.
         for (TablutMove move : options) {
-            // To evaluate a move, clone the boardState so that we can do modifications on
-            // it.
-            TablutBoardState cloneBS = (TablutBoardState) bs.clone();
-
-            // Process that move, as if we actually made it happen.
-            cloneBS.processMove(move);
-
-            // Check how many opponent pieces there are now, maybe we captured some!
-            int newNumberOfOpponentPieces = cloneBS.getNumberPlayerPieces(opponent);
+            // To evaluate a move, ask the boardState what the move would capture. There is
+            // no need to clone it and process the move, the preview does not modify it.
+            int newNumberOfOpponentPieces = bs.getNumberPlayerPieces(opponent) - bs.getCaptures(move).size();
 
             // If this move caused some capturing to happen, then do it! Greedy!
             if (newNumberOfOpponentPieces < minNumberOfOpponentPieces) {
@@ -54,9 +48,9 @@ public class GreedyTablutPlayer extends TablutPlayer {
              * If we also want to check if the move would cause us to win, this works for
              * both! This will check if black can capture the king, and will also check if
              * white can move to a corner, since if either of these things happen then a
-             * winner will be set.
+             * winner would be set.
              */
-            if (cloneBS.getWinner() == player_id) {
+            if (bs.getWinnerAfter(move) == player_id) {
                 bestMove = move;
                 moveCaptures = true;
                 break;
@@ -0,0 +1,181 @@
+package tablut;
+
+import java.util.Arrays;
+
+import coordinates.Coordinates;
+
+/**
+ * How far the king is from escaping, taking the pieces in its way into
+ * account (unlike Coordinates.distanceToClosestCorner).
+ *
+ * Distances are found with a breadth-first search over king moves that works
+ * on whole rows and columns at once: from every square of the frontier, the
+ * slide tables of Bitboards give all the squares the king could stop on along
+ * its row and column. The board has 81 squares, so a search touches each one
+ * at most once and never builds a move.
+ *
+ * Corners are numbered in the order of Coordinates.getCorners: (0, 0),
+ * (0, 8), (8, 0), (8, 8).
+ */
+public final class KingEscape {
+    public static final int NUM_CORNERS = 4;
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private static final int LAST = Bitboards.SIZE - 1;
+    private static final int[] CORNERS = { Coordinates.square(0, 0), Coordinates.square(0, LAST),
+            Coordinates.square(LAST, 0), Coordinates.square(LAST, LAST) };
+    private static final int LINE_ENDS = 1 | (1 << LAST);
+
+    private KingEscape() {
+    }
+
+    /**
+     * Writes the least number of king moves to each corner into the given array
+     * (NUM_CORNERS entries), as if the muscovites did not move in between, and
+     * returns the smallest. Corners the king cannot reach, or all of them once the
+     * king is captured, are UNREACHABLE. The array may be null if only the
+     * smallest distance is wanted.
+     */
+    public static int cornerDistances(TablutBoardState state, int[] distances) {
+        if (distances != null)
+            Arrays.fill(distances, 0, NUM_CORNERS, UNREACHABLE);
+        int king = state.getKingSquare();
+        if (king < 0)
+            return UNREACHABLE;
+
+        int closest = UNREACHABLE;
+        int found = 0; // one bit per corner
+        for (int c = 0; c < NUM_CORNERS; c++) {
+            if (CORNERS[c] == king) {
+                closest = 0;
+                found |= 1 << c;
+                if (distances != null)
+                    distances[c] = 0;
+            }
+        }
+
+        long reachedLo = Bitboards.loBit(king);
+        long reachedHi = Bitboards.hiBit(king);
+        long frontierLo = reachedLo;
+        long frontierHi = reachedHi;
+        int allCorners = (1 << NUM_CORNERS) - 1;
+        boolean onlyClosest = distances == null;
+        for (int depth = 1; found != allCorners && !(onlyClosest && found != 0)
+                && (frontierLo | frontierHi) != 0; depth++) {
+            long nextLo = 0, nextHi = 0;
+            for (int w = 0; w < 2; w++) {
+                long frontier = (w == 0) ? frontierLo : frontierHi;
+                int base = (w == 0) ? 0 : Bitboards.LO_SQUARES;
+                for (; frontier != 0; frontier &= frontier - 1) {
+                    int square = base + Long.numberOfTrailingZeros(frontier);
+                    int x = Coordinates.squareX(square);
+                    int y = Coordinates.squareY(square);
+
+                    // The whole row in one go; the column a square at a time.
+                    long alongRow = Bitboards.slide(y, rowOccupancy(state, king, x));
+                    if (x < 7)
+                        nextLo |= alongRow << (x * Bitboards.SIZE);
+                    else
+                        nextHi |= alongRow << ((x - 7) * Bitboards.SIZE);
+                    for (int m = Bitboards.slide(x, columnOccupancy(state, king, y)); m != 0; m &= m - 1) {
+                        int reached = Coordinates.square(Integer.numberOfTrailingZeros(m), y);
+                        nextLo |= Bitboards.loBit(reached);
+                        nextHi |= Bitboards.hiBit(reached);
+                    }
+                }
+            }
+            frontierLo = nextLo & ~reachedLo;
+            frontierHi = nextHi & ~reachedHi;
+            reachedLo |= frontierLo;
+            reachedHi |= frontierHi;
+            for (int c = 0; c < NUM_CORNERS; c++) {
+                if ((found & (1 << c)) == 0 && Bitboards.isSet(frontierLo, frontierHi, CORNERS[c])) {
+                    closest = Math.min(closest, depth);
+                    found |= 1 << c;
+                    if (distances != null)
+                        distances[c] = depth;
+                }
+            }
+        }
+        return closest;
+    }
+
+    // The least number of king moves to any corner (see cornerDistances).
+    public static int escapeDistance(TablutBoardState state) {
+        return cornerDistances(state, null);
+    }
+
+    /*
+     * The squares from which the king would reach a corner in one move: those
+     * with a clear run along an edge to a corner. A king that stands on one of
+     * them threatens to win; a king that can get to one from which two corners
+     * are open ("two open roads") cannot be stopped with a single move.
+     */
+    public static long cornerLineSquaresLo(TablutBoardState state) {
+        return cornerLineSquares(state, true);
+    }
+
+    public static long cornerLineSquaresHi(TablutBoardState state) {
+        return cornerLineSquares(state, false);
+    }
+
+    private static long cornerLineSquares(TablutBoardState state, boolean low) {
+        int king = state.getKingSquare();
+        long lo = 0, hi = 0;
+        for (int edge = 0; edge <= LAST; edge += LAST) {
+            // Along row "edge", from both of its corners.
+            int row = rowOccupancy(state, king, edge);
+            long rowSquares = Bitboards.slide(0, row) | Bitboards.slide(LAST, row);
+            if (edge < 7)
+                lo |= rowSquares << (edge * Bitboards.SIZE);
+            else
+                hi |= rowSquares << ((edge - 7) * Bitboards.SIZE);
+
+            // Along column "edge", from both of its corners.
+            int column = columnOccupancy(state, king, edge);
+            for (int m = Bitboards.slide(0, column) | Bitboards.slide(LAST, column); m != 0; m &= m - 1) {
+                int square = Coordinates.square(Integer.numberOfTrailingZeros(m), edge);
+                lo |= Bitboards.loBit(square);
+                hi |= Bitboards.hiBit(square);
+            }
+        }
+        for (int corner : CORNERS) { // a king on a corner has already escaped
+            lo &= ~Bitboards.loBit(corner);
+            hi &= ~Bitboards.hiBit(corner);
+        }
+        return low ? lo : hi;
+    }
+
+    /**
+     * The number of corners the king could move to right now. Two or more is the
+     * "two open roads" fork: the muscovites can only block one of them.
+     */
+    public static int countOpenRoads(TablutBoardState state) {
+        int king = state.getKingSquare();
+        if (king < 0)
+            return 0;
+        int x = Coordinates.squareX(king);
+        int y = Coordinates.squareY(king);
+        int roads = 0;
+        if (x == 0 || x == LAST)
+            roads += Integer.bitCount(Bitboards.slide(y, state.rowOccupancy(x)) & LINE_ENDS);
+        if (y == 0 || y == LAST)
+            roads += Integer.bitCount(Bitboards.slide(x, state.columnOccupancy(y)) & LINE_ENDS);
+        return roads;
+    }
+
+    // The occupancy of row x, leaving out the king, which is the piece that moves.
+    private static int rowOccupancy(TablutBoardState state, int king, int x) {
+        int occupancy = state.rowOccupancy(x);
+        if (king >= 0 && Coordinates.squareX(king) == x)
+            occupancy &= ~(1 << Coordinates.squareY(king));
+        return occupancy;
+    }
+
+    private static int columnOccupancy(TablutBoardState state, int king, int y) {
+        int occupancy = state.columnOccupancy(y);
+        if (king >= 0 && Coordinates.squareY(king) == y)
+            occupancy &= ~(1 << Coordinates.squareX(king));
+        return occupancy;
+    }
+}
@@ -0,0 +1,55 @@
+package tablut;
+
+import boardgame.Board;
+
+/**
+ * An evaluator that is a weighted sum of TablutFeatures. The features are read
+ * off the masks of the state and off piece-square sums the evaluator keeps
+ * itself, so evaluating a leaf is a dot product.
+ */
+public class LinearEvaluator implements Evaluator {
+    // Weights in the order of the TablutFeatures indices.
+    public static final int[] DEFAULT_WEIGHTS = { 100, -30, -40, 10, 3 };
+
+    private final int[] weights;
+    private final PieceSquareSums pieceSquares;
+    private final int[] features = new int[TablutFeatures.NUM_FEATURES];
+
+    public LinearEvaluator() {
+        this(DEFAULT_WEIGHTS);
+    }
+
+    public LinearEvaluator(int[] weights) {
+        this(weights, TablutFeatures.pieceSquareValues());
+    }
+
+    /**
+     * An evaluator with its own piece-square table, indexed by player and then by
+     * square (see PieceSquareSums).
+     */
+    public LinearEvaluator(int[] weights, int[][] pieceSquareValues) throws IllegalArgumentException {
+        if (weights.length != TablutFeatures.NUM_FEATURES) {
+            throw new IllegalArgumentException(
+                    "Expected " + TablutFeatures.NUM_FEATURES + " weights, got " + weights.length);
+        }
+        this.weights = weights.clone();
+        this.pieceSquares = new PieceSquareSums(pieceSquareValues);
+    }
+
+    // Not thread-safe, as the evaluator keeps a feature buffer and the piece-square sums.
+    @Override
+    public int evaluate(TablutBoardState state) {
+        int player = state.getTurnPlayer();
+        int winner = state.getWinner();
+        if (winner == TablutBoardState.MUSCOVITE || winner == TablutBoardState.SWEDE)
+            return (winner == player) ? WIN_SCORE : -WIN_SCORE;
+        if (state.gameOver() || winner == Board.DRAW)
+            return 0;
+
+        TablutFeatures.extract(state, pieceSquares, features);
+        int score = 0;
+        for (int i = 0; i < TablutFeatures.NUM_FEATURES; i++)
+            score += weights[i] * features[i];
+        return (player == TablutBoardState.SWEDE) ? score : -score;
+    }
+}
@@ -0,0 +1,208 @@
+package tablut;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the positions reachable in exactly N moves ("perft"), as a check of
+ * the move generator and a benchmark of its speed.
+ *
+ * A position where the game is over has no moves, so lines stop there. The
+ * count is split by root move ("divide"), and the root moves can be searched in
+ * parallel. Run it with
+ *
+ *     java -cp bin tablut.Perft depth [threads] [position]
+ *
+ * where the position is in the format of TablutPosition.toString, or with
+ * "ant perft -Ddepth=4 -Dthreads=4". The position can also be a board size
+ * (7, 9, 11 or 13) to start from. Sizes other than 9, and positions with some
+ * other number of rows than 9, are counted with TaflBoardState; 9x9 positions
+ * always use TablutBoardState.
+ */
+public class Perft {
+
+    /**
+     * Counts the leaves at the given depth below the state. The state is played on
+     * in place and is left as it was found.
+     */
+    public static long perft(TablutBoardState state, int depth) {
+        int[][] moves = new int[Math.max(depth, 1)][TablutBoardState.MAX_LEGAL_MOVES];
+        return perft(state, depth, moves);
+    }
+
+    private static long perft(TablutBoardState state, int depth, int[][] moves) {
+        if (depth == 0)
+            return 1;
+        if (state.gameOver())
+            return 0;
+        int[] buffer = moves[depth - 1];
+        int count = state.getAllLegalMoves(buffer);
+        if (depth == 1)
+            return count;
+
+        long nodes = 0;
+        for (int i = 0; i < count; i++) {
+            long undo = state.applyMove(buffer[i]);
+            nodes += perft(state, depth - 1, moves);
+            state.undoMove(undo);
+        }
+        return nodes;
+    }
+
+    // Same as perft, for the boards of other sizes.
+    public static long perft(TaflBoardState state, int depth) {
+        int[][] moves = new int[Math.max(depth, 1)][state.getGeometry().getMaxLegalMoves()];
+        return perft(state, depth, moves);
+    }
+
+    private static long perft(TaflBoardState state, int depth, int[][] moves) {
+        if (depth == 0)
+            return 1;
+        if (state.gameOver())
+            return 0;
+        int[] buffer = moves[depth - 1];
+        int count = state.getAllLegalMoves(buffer);
+        if (depth == 1)
+            return count;
+
+        long nodes = 0;
+        for (int i = 0; i < count; i++) {
+            long undo = state.applyMove(buffer[i]);
+            nodes += perft(state, depth - 1, moves);
+            state.undoMove(undo);
+        }
+        return nodes;
+    }
+
+    /**
+     * Same as perft, but returns the count below each root move, in the order of
+     * getAllLegalMoves. The root moves are shared among the given number of
+     * threads.
+     */
+    public static long[] divide(TablutBoardState state, final int depth, int threads) {
+        int[] rootMoves = new int[TablutBoardState.MAX_LEGAL_MOVES];
+        int count = state.gameOver() ? 0 : state.getAllLegalMoves(rootMoves);
+
+        List<RecursiveTask<Long>> tasks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final TablutBoardState child = (TablutBoardState) state.clone();
+            child.applyMove(rootMoves[i]);
+            tasks.add(new RecursiveTask<Long>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected Long compute() {
+                    return perft(child, depth - 1);
+                }
+            });
+        }
+        return run(tasks, threads);
+    }
+
+    // Same as divide, for the boards of other sizes.
+    public static long[] divide(TaflBoardState state, final int depth, int threads) {
+        int[] rootMoves = new int[state.getGeometry().getMaxLegalMoves()];
+        int count = state.gameOver() ? 0 : state.getAllLegalMoves(rootMoves);
+
+        List<RecursiveTask<Long>> tasks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final TaflBoardState child = (TaflBoardState) state.clone();
+            child.applyMove(rootMoves[i]);
+            tasks.add(new RecursiveTask<Long>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected Long compute() {
+                    return perft(child, depth - 1);
+                }
+            });
+        }
+        return run(tasks, threads);
+    }
+
+    // Runs the tasks on a pool of the given number of threads and returns their results.
+    private static long[] run(List<RecursiveTask<Long>> tasks, int threads) {
+        int count = tasks.size();
+        long[] nodes = new long[count];
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (RecursiveTask<Long> task : tasks)
+                pool.execute(task);
+            for (int i = 0; i < count; i++)
+                nodes[i] = tasks.get(i).join();
+        } finally {
+            pool.shutdown();
+        }
+        return nodes;
+    }
+
+    public static void main(String[] args) {
+        int depth;
+        int threads = 1;
+        TablutBoardState state = null;
+        TaflBoardState taflState = null;
+        try {
+            depth = Integer.parseInt(args[0]);
+            if (args.length > 1)
+                threads = Integer.parseInt(args[1]);
+            if (depth < 1 || threads < 1)
+                throw new IllegalArgumentException();
+            String position = (args.length > 2) ? args[2].trim() : "";
+            if (position.matches("\\d+")) {
+                int size = Integer.parseInt(position);
+                if (size < TaflGeometry.MIN_SIZE || size > TaflGeometry.MAX_SIZE || size % 2 == 0)
+                    throw new IllegalArgumentException();
+                if (size == Bitboards.SIZE)
+                    state = new TablutBoardState();
+                else
+                    taflState = new TaflBoardState(size);
+            } else if (!position.isEmpty() && position.split("\\s+")[0].split("/").length != Bitboards.SIZE) {
+                taflState = TaflBoardState.parse(position);
+            } else {
+                state = position.isEmpty() ? new TablutBoardState()
+                        : new TablutBoardState(TablutPosition.parse(position));
+            }
+        } catch (Exception e) {
+            System.err.println("Usage: java tablut.Perft depth [threads] [position]\n"
+                    + "  Where depth and threads are positive ints, and position is in the format\n"
+                    + "  of TablutPosition.toString (the initial position by default), or the size\n"
+                    + "  of a board to start from (7, 9, 11 or 13).");
+            return;
+        }
+
+        long start;
+        long[] nodes;
+        String[] rootMoveNames;
+        if (taflState != null) {
+            System.out.println(taflState);
+            int[] rootMoves = new int[taflState.getGeometry().getMaxLegalMoves()];
+            int count = taflState.getAllLegalMoves(rootMoves);
+            rootMoveNames = new String[count];
+            for (int i = 0; i < count; i++)
+                rootMoveNames[i] = taflState.toTransportable(rootMoves[i]);
+            start = System.nanoTime();
+            nodes = divide(taflState, depth, threads);
+        } else {
+            System.out.println(state.getPosition());
+            int[] rootMoves = new int[TablutBoardState.MAX_LEGAL_MOVES];
+            int count = state.getAllLegalMoves(rootMoves);
+            rootMoveNames = new String[count];
+            for (int i = 0; i < count; i++)
+                rootMoveNames[i] = TablutMove.fromPacked(rootMoves[i]).toTransportable();
+            start = System.nanoTime();
+            nodes = divide(state, depth, threads);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long total = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            System.out.println(String.format("%s: %d", rootMoveNames[i], nodes[i]));
+            total += nodes[i];
+        }
+        double seconds = elapsed / 1e9;
+        System.out.println(String.format("\nDepth %d: %d nodes in %.3f s (%.0f nodes/s, %d threads)", depth, total,
+                seconds, total / Math.max(seconds, 1e-9), threads));
+    }
+}
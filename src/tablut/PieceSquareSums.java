@@ -0,0 +1,62 @@
+package tablut;
+
+/**
+ * The piece-square sums of a tablut position: for each player, a table of
+ * values summed over the squares of their pieces, the king included for the
+ * swedes (see TablutFeatures.PIECE_SQUARE).
+ *
+ * The sums belong to the evaluator rather than to the state, so moves cost
+ * nothing extra where nobody evaluates (perft, playouts, the server). They
+ * remember the masks they were last brought up to date with, and update only
+ * adds and removes the values of the squares that differ since. The positions
+ * a search evaluates are a few moves apart, so that is a handful of squares
+ * rather than every piece. Not thread-safe: each evaluator needs its own.
+ */
+public final class PieceSquareSums {
+    private final int[][] values;
+    private final long[] piecesLo = new long[2];
+    private final long[] piecesHi = new long[2];
+    private final int[] sums = new int[2];
+
+    /**
+     * Sums over the given table, indexed by player (MUSCOVITE or SWEDE) and then
+     * by square. The table is copied.
+     */
+    public PieceSquareSums(int[][] values) throws IllegalArgumentException {
+        if (values.length != 2 || values[0].length != Bitboards.SQUARES || values[1].length != Bitboards.SQUARES)
+            throw new IllegalArgumentException("Expected a table of 2 x " + Bitboards.SQUARES + " values");
+        this.values = new int[][] { values[0].clone(), values[1].clone() };
+    }
+
+    // Brings the sums up to date with the pieces of the state.
+    public void update(TablutBoardState state) {
+        for (int player = 0; player < 2; player++) {
+            long lo = state.getPlayerLo(player);
+            long hi = state.getPlayerHi(player);
+            int sum = sums[player];
+            sum += change(values[player], lo, piecesLo[player], 0);
+            sum += change(values[player], hi, piecesHi[player], Bitboards.LO_SQUARES);
+            sums[player] = sum;
+            piecesLo[player] = lo;
+            piecesHi[player] = hi;
+        }
+    }
+
+    // The sum of a player's values as of the last update.
+    public int getSum(int player) {
+        return sums[player];
+    }
+
+    /*
+     * How much the sum over one word of a mask (the word starting at square
+     * "base") changes when its pieces go from "before" to "after".
+     */
+    private static int change(int[] values, long after, long before, int base) {
+        int change = 0;
+        for (long changed = after ^ before; changed != 0; changed &= changed - 1) {
+            int square = base + Long.numberOfTrailingZeros(changed);
+            change += ((after & changed & -changed) != 0) ? values[square] : -values[square];
+        }
+        return change;
+    }
+}
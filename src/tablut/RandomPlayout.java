@@ -0,0 +1,104 @@
+package tablut;
+
+/**
+ * Plays games out to the end with random legal moves, as fast as possible, for
+ * Monte Carlo players.
+ *
+ * A playout is played in place on the given state with applyMove and then taken
+ * back with undoMove, so nothing is cloned or allocated per move. Moves are
+ * drawn by counting the legal moves (countLegalMoves) and picking one by index
+ * (getLegalMove), which never builds the move list, and the random numbers come
+ * from a xorshift generator rather than java.util.Random.
+ *
+ * Playouts can be weighted towards noisy moves (see getNoisyMoves): with the
+ * given percentage, a noisy move is played whenever there is one. This makes
+ * the games look a little more like real ones, at some cost in speed.
+ *
+ * An instance is not thread-safe; give each thread its own.
+ */
+public class RandomPlayout {
+    // The longest possible game: MAX_TURNS + 1 turns of two moves each.
+    private static final int MAX_PLIES = 2 * (TablutBoardState.MAX_TURNS + 1);
+
+    private long seed;
+    private final int noisyPercent;
+    private final int[] noisyMoves = new int[TablutBoardState.MAX_LEGAL_MOVES];
+    private final long[] undos = new long[MAX_PLIES];
+
+    // Uniform playouts.
+    public RandomPlayout(long seed) {
+        this(seed, 0);
+    }
+
+    // Playouts that play a noisy move, when there is one, noisyPercent% of the time.
+    public RandomPlayout(long seed, int noisyPercent) {
+        this.seed = (seed == 0) ? 0x9E3779B97F4A7C15L : seed; // xorshift gets stuck on 0
+        this.noisyPercent = noisyPercent;
+    }
+
+    /**
+     * Plays random moves from the state until the game is over and returns the
+     * winner (see TablutBoardState.getWinner). The state is left as it was found.
+     */
+    public int play(TablutBoardState state) {
+        int plies = 0;
+        while (!state.gameOver() && plies < MAX_PLIES) {
+            undos[plies++] = state.applyMove(chooseMove(state));
+        }
+        int winner = state.getWinner();
+        while (plies > 0) {
+            state.undoMove(undos[--plies]);
+        }
+        return winner;
+    }
+
+    /**
+     * Picks a random legal move for the turn player, as a packed int (see
+     * TablutMove.toPacked). The game must not be over.
+     */
+    public int chooseMove(TablutBoardState state) {
+        if (noisyPercent > 0 && nextInt(100) < noisyPercent) {
+            int count = state.getNoisyMoves(noisyMoves);
+            if (count > 0)
+                return noisyMoves[nextInt(count)];
+        }
+        return state.getLegalMove(nextInt(state.countLegalMoves(state.getTurnPlayer())));
+    }
+
+    // xorshift64*, see Vigna, "An experimental exploration of Marsaglia's xorshift generators".
+    private long nextLong() {
+        seed ^= seed >>> 12;
+        seed ^= seed << 25;
+        seed ^= seed >>> 27;
+        return seed * 0x2545F4914F6CDD1DL;
+    }
+
+    // A number from 0 to bound - 1, by scaling rather than by modulo.
+    private int nextInt(int bound) {
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    // Benchmark: java -cp bin tablut.RandomPlayout [playouts] [noisyPercent]
+    public static void main(String[] args) {
+        int playouts = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int noisyPercent = (args.length > 1) ? Integer.parseInt(args[1]) : 0;
+        RandomPlayout playout = new RandomPlayout(System.nanoTime(), noisyPercent);
+        TablutBoardState state = new TablutBoardState();
+
+        int[] wins = new int[2];
+        int draws = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < playouts; i++) {
+            int winner = playout.play(state);
+            if (winner == TablutBoardState.MUSCOVITE || winner == TablutBoardState.SWEDE)
+                wins[winner]++;
+            else
+                draws++;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%d playouts in %.3f s (%.0f playouts/s)", playouts, seconds,
+                playouts / seconds));
+        System.out.println(String.format("Muscovites %d, Swedes %d, draws %d", wins[TablutBoardState.MUSCOVITE],
+                wins[TablutBoardState.SWEDE], draws));
+    }
+}
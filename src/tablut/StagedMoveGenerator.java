@@ -0,0 +1,200 @@
+package tablut;
+
+import coordinates.Coordinates;
+
+/**
+ * Hands out the legal moves of a TablutBoardState one at a time, in stages, so
+ * that a search which cuts off early never pays for the moves it did not look
+ * at.
+ *
+ * The stages are:
+ * 1. the hash move given to reset, if it is legal here;
+ * 2. tactical moves: the noisy moves of the state (captures and king moves
+ *    that reach or threaten a corner) and king moves that get closer to a
+ *    corner, best first, with captures ranked by ExchangeEvaluator;
+ * 3. every other legal move, in the order of getAllLegalMoves.
+ *
+ * A stage is only generated once next() reaches it, and no move is handed out
+ * twice. One generator is meant to be kept per ply and reused; the state must
+ * be back in the position given to reset whenever next() is called.
+ *
+ * Ranking the captures plays moves on the state itself and takes them back
+ * (see ExchangeEvaluator), so next() changes the state while it runs, even
+ * though it leaves it as it found it. Unlike the read-only queries of
+ * TablutBoardState, it must not be called on a state that other threads are
+ * reading; give each thread its own clone.
+ */
+public class StagedMoveGenerator {
+    public static final int NONE = -1;
+
+    private static final int STAGE_HASH = 0;
+    private static final int STAGE_TACTICAL_INIT = 1;
+    private static final int STAGE_TACTICAL = 2;
+    private static final int STAGE_QUIET_INIT = 3;
+    private static final int STAGE_QUIET = 4;
+    private static final int STAGE_DONE = 5;
+
+    // Scores used to order the tactical moves.
+    private static final int KING_RESULT_SCORE = 1000; // the king reaches a corner
+    private static final int CORNER_THREAT_SCORE = 500; // the king gets a clear run to a corner
+    private static final int KING_STEP_SCORE = 10; // per step the king gets closer to a corner
+
+    private TablutBoardState state;
+    private int hashMove = NONE;
+    private int stage = STAGE_DONE;
+
+    private final int[] tactical = new int[TablutBoardState.MAX_LEGAL_MOVES];
+    private final int[] scores = new int[TablutBoardState.MAX_LEGAL_MOVES];
+    private final int[] quiet = new int[TablutBoardState.MAX_LEGAL_MOVES];
+    private final int[] noisy = new int[TablutBoardState.MAX_LEGAL_MOVES];
+    private final int[] kingMoves = new int[TablutBoardState.MAX_PIECE_MOVES];
+    private final ExchangeEvaluator exchange = new ExchangeEvaluator();
+    private int tacticalCount;
+    private int quietCount;
+    private int index;
+
+    // The moves handed out before the quiet stage, indexed by packed id.
+    private final long[] handedOut = new long[TablutMove.NUM_PACKED_IDS / 64];
+
+    /**
+     * Starts over on the given state. The hash move (a packed move, or NONE) is
+     * tried first; it is checked for legality, so a stale entry is harmless.
+     */
+    public void reset(TablutBoardState state, int hashMove) {
+        clearHandedOut();
+        this.state = state;
+        this.hashMove = hashMove;
+        this.stage = STAGE_HASH;
+        this.tacticalCount = 0;
+        this.quietCount = 0;
+        this.index = 0;
+    }
+
+    /**
+     * Returns the next packed move (see TablutMove.toPacked), or NONE once every
+     * legal move has been handed out.
+     */
+    public int next() {
+        while (true) {
+            switch (stage) {
+            case STAGE_HASH:
+                stage = STAGE_TACTICAL_INIT;
+                if (hashMove != NONE && state.isLegal(hashMove)) {
+                    markHandedOut(hashMove);
+                    return hashMove;
+                }
+                continue;
+            case STAGE_TACTICAL_INIT:
+                generateTactical();
+                stage = STAGE_TACTICAL;
+                continue;
+            case STAGE_TACTICAL:
+                if (index < tacticalCount)
+                    return tactical[index++];
+                stage = STAGE_QUIET_INIT;
+                continue;
+            case STAGE_QUIET_INIT:
+                quietCount = state.getAllLegalMoves(quiet);
+                index = 0;
+                stage = STAGE_QUIET;
+                continue;
+            case STAGE_QUIET:
+                while (index < quietCount) {
+                    int move = quiet[index++];
+                    if (!isHandedOut(move))
+                        return move;
+                }
+                stage = STAGE_DONE;
+                continue;
+            default:
+                return NONE;
+            }
+        }
+    }
+
+    // Whether the moves being handed out are still from the hash or tactical stages.
+    public boolean isTacticalStage() {
+        return stage <= STAGE_TACTICAL;
+    }
+
+    /*
+     * Fills the buffer with the tactical moves: the noisy moves of the state (see
+     * TablutBoardState.getNoisyMoves) and any other king move towards a corner.
+     */
+    private void generateTactical() {
+        index = 0;
+        int kingSquare = state.getKingSquare();
+        tacticalCount = 0;
+        int noisyCount = state.getNoisyMoves(noisy);
+        for (int i = 0; i < noisyCount; i++) {
+            int move = noisy[i];
+            if (isHandedOut(move))
+                continue;
+            int from = TablutMove.packedStart(move);
+            int to = TablutMove.packedEnd(move);
+            int captures = state.captureDirections(from, to);
+            // Captures are worth what they win once the recaptures are over.
+            int score = (captures != 0) ? exchange.evaluate(state, move) : 0;
+            if (from == kingSquare) {
+                score += kingProgressScore(from, to);
+                if (captures == 0 && !Coordinates.isCorner(to))
+                    score += CORNER_THREAT_SCORE;
+            }
+            add(move, score);
+        }
+
+        // The other king moves towards a corner.
+        if (state.getTurnPlayer() == TablutBoardState.SWEDE && kingSquare >= 0) {
+            int kingMoveCount = state.getLegalMovesForPosition(kingSquare, kingMoves);
+            for (int i = 0; i < kingMoveCount; i++) {
+                int move = kingMoves[i];
+                int score = kingProgressScore(kingSquare, TablutMove.packedEnd(move));
+                if (score > 0 && !isHandedOut(move))
+                    add(move, score);
+            }
+        }
+
+        // Insertion sort, best score first; there are only ever a few of these.
+        for (int i = 1; i < tacticalCount; i++) {
+            int move = tactical[i];
+            int score = scores[i];
+            int j = i - 1;
+            for (; j >= 0 && scores[j] < score; j--) {
+                tactical[j + 1] = tactical[j];
+                scores[j + 1] = scores[j];
+            }
+            tactical[j + 1] = move;
+            scores[j + 1] = score;
+        }
+    }
+
+    private static int kingProgressScore(int from, int to) {
+        if (Coordinates.isCorner(to))
+            return KING_RESULT_SCORE;
+        int steps = Coordinates.distanceToClosestCorner(from) - Coordinates.distanceToClosestCorner(to);
+        return (steps > 0) ? KING_STEP_SCORE * steps : 0;
+    }
+
+    private void add(int move, int score) {
+        markHandedOut(move);
+        tactical[tacticalCount] = move;
+        scores[tacticalCount] = score;
+        tacticalCount++;
+    }
+
+    private void markHandedOut(int move) {
+        handedOut[move >>> 6] |= 1L << move;
+    }
+
+    private boolean isHandedOut(int move) {
+        return (handedOut[move >>> 6] & (1L << move)) != 0;
+    }
+
+    // Only the bits that were set are cleared, so resetting costs next to nothing.
+    private void clearHandedOut() {
+        if (hashMove >= 0 && hashMove < TablutMove.NUM_PACKED_IDS)
+            handedOut[hashMove >>> 6] = 0;
+        for (int i = 0; i < tacticalCount; i++)
+            handedOut[tactical[i] >>> 6] = 0;
+    }
+}
@@ -0,0 +1,144 @@
+package tablut;
+
+import coordinates.Coordinates;
+
+/**
+ * The 8 symmetries of the square board (rotations and reflections).
+ *
+ * The starting position, the corners, the center and the rules of tablut are
+ * all unchanged by these symmetries, so positions that are images of each other
+ * are worth the same. Storing positions under their canonical key (the
+ * smallest hash key among the 8 images) lets transposition tables and opening
+ * books keep one entry per equivalence class. A move found in the canonical
+ * orientation is mapped back to the real board with the inverse symmetry:
+ *
+ * <pre>
+ * int symmetry = Symmetry.canonicalSymmetry(state);
+ * int stored = Symmetry.transformMove(move, symmetry);
+ * ...
+ * int move = Symmetry.transformMove(stored, Symmetry.inverse(symmetry));
+ * </pre>
+ */
+public final class Symmetry {
+    public static final int IDENTITY = 0;
+    public static final int NUM_SYMMETRIES = 8;
+
+    // squareMaps[s][square] is the image of square under symmetry s.
+    private static final int[][] squareMaps = new int[NUM_SYMMETRIES][Bitboards.SQUARES];
+    private static final int[] inverses = new int[NUM_SYMMETRIES];
+    static {
+        Coordinates.setAllCoordinates(Bitboards.SIZE);
+        int last = Bitboards.SIZE - 1;
+        for (int square = 0; square < Bitboards.SQUARES; square++) {
+            int x = Coordinates.squareX(square);
+            int y = Coordinates.squareY(square);
+            squareMaps[0][square] = Coordinates.square(x, y); // identity
+            squareMaps[1][square] = Coordinates.square(y, last - x); // quarter turn
+            squareMaps[2][square] = Coordinates.square(last - x, last - y); // half turn
+            squareMaps[3][square] = Coordinates.square(last - y, x); // three quarter turn
+            squareMaps[4][square] = Coordinates.square(last - x, y); // flip the rows
+            squareMaps[5][square] = Coordinates.square(x, last - y); // flip the columns
+            squareMaps[6][square] = Coordinates.square(y, x); // main diagonal
+            squareMaps[7][square] = Coordinates.square(last - y, last - x); // anti-diagonal
+        }
+        for (int s = 0; s < NUM_SYMMETRIES; s++) {
+            for (int t = 0; t < NUM_SYMMETRIES; t++) {
+                boolean undoes = true;
+                for (int square = 0; square < Bitboards.SQUARES; square++)
+                    undoes &= squareMaps[t][squareMaps[s][square]] == square;
+                if (undoes)
+                    inverses[s] = t;
+            }
+        }
+    }
+
+    private Symmetry() {
+    }
+
+    public static int transformSquare(int square, int symmetry) {
+        return squareMaps[symmetry][square];
+    }
+
+    // The symmetry that undoes the given one.
+    public static int inverse(int symmetry) {
+        return inverses[symmetry];
+    }
+
+    // Transforms a packed move (see TablutMove.toPacked).
+    public static int transformMove(int move, int symmetry) {
+        int[] map = squareMaps[symmetry];
+        return TablutMove.pack(map[TablutMove.packedStart(move)], map[TablutMove.packedEnd(move)],
+                TablutMove.packedPlayer(move));
+    }
+
+    public static TablutMove transformMove(TablutMove move, int symmetry) {
+        return TablutMove.fromPacked(transformMove(move.toPacked(), symmetry));
+    }
+
+    /**
+     * Returns the hash key the state would have if its board were transformed by
+     * the given symmetry. Keys are the same as TablutBoardState.getHashKey, so the
+     * identity gives back the state's own key.
+     */
+    public static long hashKey(TablutBoardState state, int symmetry) {
+        int[] map = squareMaps[symmetry];
+        long key = (state.getTurnPlayer() == TablutBoardState.SWEDE) ? Zobrist.SIDE_KEY : 0L;
+        for (int player = 0; player < 2; player++) {
+            long lo = state.getPlayerLo(player);
+            long hi = state.getPlayerHi(player);
+            for (; lo != 0; lo &= lo - 1)
+                key ^= Zobrist.pieceKey(player, map[Long.numberOfTrailingZeros(lo)]);
+            for (; hi != 0; hi &= hi - 1)
+                key ^= Zobrist.pieceKey(player, map[Bitboards.LO_SQUARES + Long.numberOfTrailingZeros(hi)]);
+        }
+        if (state.getKingSquare() >= 0)
+            key ^= Zobrist.kingKey(map[state.getKingSquare()]);
+        return key;
+    }
+
+    // The symmetry that maps the state to its canonical orientation.
+    public static int canonicalSymmetry(TablutBoardState state) {
+        int best = IDENTITY;
+        long bestKey = state.getHashKey();
+        for (int s = 1; s < NUM_SYMMETRIES; s++) {
+            long key = hashKey(state, s);
+            if (key < bestKey) {
+                bestKey = key;
+                best = s;
+            }
+        }
+        return best;
+    }
+
+    // The same key for all 8 images of a position.
+    public static long canonicalHashKey(TablutBoardState state) {
+        long bestKey = state.getHashKey();
+        for (int s = 1; s < NUM_SYMMETRIES; s++) {
+            bestKey = Math.min(bestKey, hashKey(state, s));
+        }
+        return bestKey;
+    }
+
+    public static TablutPosition transform(TablutPosition position, int symmetry) {
+        int[] map = squareMaps[symmetry];
+        long muscovitesLo = 0, muscovitesHi = 0, swedesLo = 0, swedesHi = 0;
+        for (int square = 0; square < Bitboards.SQUARES; square++) {
+            int image = map[square];
+            if (Bitboards.isSet(position.getMuscovitesLo(), position.getMuscovitesHi(), square)) {
+                muscovitesLo |= Bitboards.loBit(image);
+                muscovitesHi |= Bitboards.hiBit(image);
+            } else if (Bitboards.isSet(position.getSwedesLo(), position.getSwedesHi(), square)) {
+                swedesLo |= Bitboards.loBit(image);
+                swedesHi |= Bitboards.hiBit(image);
+            }
+        }
+        int king = position.getKingSquare();
+        return new TablutPosition(muscovitesLo, muscovitesHi, swedesLo, swedesHi, (king < 0) ? -1 : map[king],
+                position.getTurnPlayer(), position.getTurnNumber(), position.getWinner());
+    }
+
+    // The image of the position with the smallest hash key.
+    public static TablutPosition canonicalPosition(TablutPosition position) {
+        return transform(position, canonicalSymmetry(new TablutBoardState(position)));
+    }
+}
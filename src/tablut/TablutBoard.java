@@ -10,8 +10,12 @@ public class TablutBoard extends Board {
     private TablutBoardState boardState;
 
     public TablutBoard() {
+        this(new TablutBoardState());
+    }
+
+    private TablutBoard(TablutBoardState boardState) {
         super();
-        boardState = new TablutBoardState();
+        this.boardState = boardState;
     }
 
     @Override
@@ -66,14 +70,12 @@ public class TablutBoard extends Board {
 
     @Override
     public Move parseMove(String str) throws NumberFormatException, IllegalArgumentException {
-        return new TablutMove(str);
+        return TablutMove.parse(str);
     }
 
     @Override
     public Object clone() {
-        TablutBoard board = new TablutBoard();
-        board.boardState = (TablutBoardState) boardState.clone();
-        return board;
+        return new TablutBoard((TablutBoardState) boardState.clone());
     }
 
     @Override
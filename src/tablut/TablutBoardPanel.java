@@ -205,7 +205,7 @@ public class TablutBoardPanel extends BoardPanel implements MouseListener, Mouse
             }
             if (legalCoordsToMoveTo.contains(destination)) {
                 // Now we have a destination, lets do the move!
-                TablutMove move = new TablutMove(pieceToMove.coord, destination, bs.getTurnPlayer());
+                TablutMove move = TablutMove.get(pieceToMove.coord, destination, bs.getTurnPlayer());
                 if (bs.isLegal(move)) { // sanity check
                     listener.moveEntered(move);
                     cancelMoveRequest();
@@ -5,7 +5,6 @@ import boardgame.BoardState;
 import boardgame.Move;
 import coordinates.Coord;
 import coordinates.Coordinates;
-import coordinates.Coordinates.CoordinateDoesNotExistException;
 import tablut.TablutMove;
 
 import java.util.ArrayList;
@@ -15,6 +14,33 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 
+/**
+ * The state of a game of tablut.
+ *
+ * The position is stored as occupancy masks (see Bitboards): two longs for the
+ * muscovites, two longs for the swedes (the king included) and the square of
+ * the king.
+ *
+ * Each state also keeps an incremental hash key of its position and the keys
+ * of the positions that led to it, so repeated positions can be detected.
+ * Cloning a state copies the masks, that key history (an array of about a
+ * hundred longs) and, when threats are tracked, the threat map and its own
+ * history (see setThreatTracking). Searches that want to avoid cloning
+ * altogether can play and take back moves in place with applyMove and
+ * undoMove. A state keeps no evaluation data; evaluators keep their own (see
+ * PieceSquareSums).
+ *
+ * A state is not synchronized. It can be shared between threads as long as
+ * none of them changes it: every query that does not play a move (the move
+ * generators, isLegal, getHashKey, getPosition and so on) only reads the state,
+ * and getRandomMove(Random) draws from the caller's generator. Threads that
+ * want to play moves should each work on their own clone. The static tables the
+ * rules rely on (Coordinates, Bitboards, Zobrist) are filled once and never
+ * change.
+ *
+ * This class only plays on the 9x9 board. TaflBoardState plays the same rules
+ * on the 7x7, 11x11 and 13x13 boards.
+ */
 public class TablutBoardState extends BoardState {
 
     /* Useful constants. */
@@ -23,13 +49,14 @@ public class TablutBoardState extends BoardState {
     public static final int MUSCOVITE = 0;
     public static final int BOARD_SIZE = 9; // 9x9 board for tablut
     public static final int MAX_TURNS = 49;
+    public static final int MAX_PIECE_MOVES = 2 * (BOARD_SIZE - 1); // a full row and a full column
+    public static final int MAX_LEGAL_MOVES = 16 * MAX_PIECE_MOVES; // there are never more than 16 pieces a side
 
     public static enum Piece {
         BLACK, WHITE, KING, EMPTY
     }
 
     private static HashMap<Piece, String> piecesToSymbols;
-    private static HashMap<Piece, Integer> piecesToPlayer;
     static {
         piecesToSymbols = new HashMap<>();
         piecesToSymbols.put(Piece.BLACK, "B");
@@ -37,85 +64,133 @@ public class TablutBoardState extends BoardState {
         piecesToSymbols.put(Piece.KING, "K");
         piecesToSymbols.put(Piece.EMPTY, " ");
 
-        piecesToPlayer = new HashMap<>();
-        piecesToPlayer.put(Piece.BLACK, MUSCOVITE);
-        piecesToPlayer.put(Piece.WHITE, SWEDE);
-        piecesToPlayer.put(Piece.KING, SWEDE);
-        piecesToPlayer.put(Piece.EMPTY, ILLEGAL);
-
         Coordinates.setAllCoordinates(BOARD_SIZE);
     }
 
+    private static final int CENTER = Coordinates.square(4, 4);
+
+    // Squares only the king may stand on (the corners and the center).
+    private static final long RESTRICTED_LO;
+    private static final long RESTRICTED_HI;
+    static {
+        long lo = 0, hi = 0;
+        for (int x = 0; x < BOARD_SIZE; x++) {
+            for (int y = 0; y < BOARD_SIZE; y++) {
+                if (Coordinates.isCorner(x, y) || Coordinates.isCenter(x, y)) {
+                    lo |= Bitboards.loBit(Coordinates.square(x, y));
+                    hi |= Bitboards.hiBit(Coordinates.square(x, y));
+                }
+            }
+        }
+        RESTRICTED_LO = lo;
+        RESTRICTED_HI = hi;
+    }
+
+    // The restricted squares of each row, as 9-bit line masks. The board is
+    // symmetric, so the same masks describe the columns.
+    private static final int[] RESTRICTED_LINES = new int[BOARD_SIZE];
+    static {
+        for (int x = 0; x < BOARD_SIZE; x++) {
+            RESTRICTED_LINES[x] = Bitboards.row(RESTRICTED_LO, RESTRICTED_HI, x);
+        }
+    }
+
+    // Layout of the undo records returned by applyMove.
+    private static final long UNDO_SQUARE_MASK = 0x7F;
+    private static final int UNDO_TO_SHIFT = 7;
+    private static final int UNDO_CAPTURES_SHIFT = 14;
+    private static final int UNDO_KING_SHIFT = 18;
+    private static final int UNDO_WINNER_SHIFT = 25;
+    private static final int UNDO_PLAYER_SHIFT = 28;
+    private static final int UNDO_TURN_SHIFT = 29;
+
     private static int FIRST_PLAYER = 0; // first player white, second player black
 
     /* These are our data storage things. */
-    private Piece[][] board = new Piece[BOARD_SIZE][BOARD_SIZE];
-    private HashSet<Coord> muscoviteCoords; // we can use hashsets because
-    private HashSet<Coord> swedeCoords;
-    private Coord kingPosition;
-    private Random rand = new Random(1917);
+    private long muscovitesLo;
+    private long muscovitesHi;
+    private long swedesLo; // the swede masks include the king
+    private long swedesHi;
+    private long occupiedTransposedLo; // every piece, stored at its transposed square so columns read as rows
+    private long occupiedTransposedHi;
+    private int kingSquare; // -1 once the king has been captured
+    private Random rand; // only created by getRandomMove(), which is not read-only
     private int turnPlayer;
     private int turnNumber = 0;
     private int winner = Board.NOBODY;
+    private long hashKey;
+    private long[] keyHistory = new long[2 * (MAX_TURNS + 2)]; // keys of the positions before each move
+    private int historySize = 0;
+    private ThreatMap threats; // null unless threats are tracked, see setThreatTracking
 
     // Initial Board State creation. The genesis constructor.
     public TablutBoardState() {
         super();
 
-        // Initialize to empty
-        for (Coord c : Coordinates.iterCoordinates()) {
-            board[c.x][c.y] = Piece.EMPTY;
-        }
-
         /* We now place the pieces on the board */
         int middlePosition = 4;
-        board[middlePosition][middlePosition] = Piece.KING;
+        kingSquare = Coordinates.square(middlePosition, middlePosition);
+        togglePiece(SWEDE, kingSquare);
 
         // Blacks. (Muscovites)
         List<Integer> blackSidePieces = Arrays.asList(3, 4, 5);
         List<Integer> axes = Arrays.asList(0, 8);
         for (Integer axis : axes) {
             for (Integer position : blackSidePieces) {
-                board[position][axis] = Piece.BLACK;
-                board[axis][position] = Piece.BLACK;
+                togglePiece(MUSCOVITE, Coordinates.square(position, axis));
+                togglePiece(MUSCOVITE, Coordinates.square(axis, position));
             }
         }
         axes = Arrays.asList(1, 7);
         for (Integer axis : axes) {
-            board[axis][middlePosition] = Piece.BLACK;
-            board[middlePosition][axis] = Piece.BLACK;
+            togglePiece(MUSCOVITE, Coordinates.square(axis, middlePosition));
+            togglePiece(MUSCOVITE, Coordinates.square(middlePosition, axis));
         }
         // Whites. (Swedes)
         axes = Arrays.asList(2, 3, 5, 6);
         for (Integer axis : axes) {
-            board[axis][middlePosition] = Piece.WHITE;
-            board[middlePosition][axis] = Piece.WHITE;
+            togglePiece(SWEDE, Coordinates.square(axis, middlePosition));
+            togglePiece(SWEDE, Coordinates.square(middlePosition, axis));
         }
-        // Update the lists storing the coordinates of all the pieces.
-        swedeCoords = new HashSet<>();
-        muscoviteCoords = new HashSet<>();
-        for (Coord c : Coordinates.iterCoordinates()) {
-            Piece piece = getPieceAt(c);
-            if (piecesToPlayer.get(piece) == SWEDE) {
-                swedeCoords.add(c);
-            } else if (piecesToPlayer.get(piece) == MUSCOVITE) {
-                muscoviteCoords.add(c);
-            }
-        }
-        kingPosition = Coordinates.get(4, 4);
+        hashKey = computeHashKey();
     }
 
     /* The below method is for the purpose of cloning. */
     private TablutBoardState(TablutBoardState boardState) {
-        for (Coord c : Coordinates.iterCoordinates()) {
-            board[c.x][c.y] = boardState.board[c.x][c.y];
-        }
-        swedeCoords = new HashSet<>(boardState.swedeCoords);
-        muscoviteCoords = new HashSet<>(boardState.muscoviteCoords);
-        kingPosition = boardState.kingPosition;
+        muscovitesLo = boardState.muscovitesLo;
+        muscovitesHi = boardState.muscovitesHi;
+        swedesLo = boardState.swedesLo;
+        swedesHi = boardState.swedesHi;
+        occupiedTransposedLo = boardState.occupiedTransposedLo;
+        occupiedTransposedHi = boardState.occupiedTransposedHi;
+        kingSquare = boardState.kingSquare;
         turnPlayer = boardState.turnPlayer;
         turnNumber = boardState.turnNumber;
-        winner = boardState.getWinner(); 
+        winner = boardState.getWinner();
+        hashKey = boardState.hashKey;
+        keyHistory = Arrays.copyOf(boardState.keyHistory, boardState.keyHistory.length);
+        historySize = boardState.historySize;
+        threats = (boardState.threats == null) ? null : new ThreatMap(boardState.threats);
+    }
+
+    /**
+     * Rebuilds a state from a snapshot taken with getPosition. The new state has
+     * no history of earlier positions.
+     */
+    public TablutBoardState(TablutPosition position) {
+        for (int player : new int[] { MUSCOVITE, SWEDE }) {
+            long lo = (player == MUSCOVITE) ? position.getMuscovitesLo() : position.getSwedesLo();
+            long hi = (player == MUSCOVITE) ? position.getMuscovitesHi() : position.getSwedesHi();
+            for (int square = 0; square < Bitboards.SQUARES; square++) {
+                if (Bitboards.isSet(lo, hi, square))
+                    togglePiece(player, square);
+            }
+        }
+        kingSquare = position.getKingSquare();
+        turnPlayer = position.getTurnPlayer();
+        turnNumber = position.getTurnNumber();
+        winner = position.getWinner();
+        hashKey = computeHashKey();
     }
 
     @Override
@@ -123,6 +198,12 @@ public class TablutBoardState extends BoardState {
         return new TablutBoardState(this);
     }
 
+    // Takes an immutable snapshot of this state (see TablutPosition).
+    public TablutPosition getPosition() {
+        return new TablutPosition(muscovitesLo, muscovitesHi, swedesLo, swedesHi, kingSquare, turnPlayer, turnNumber,
+                winner);
+    }
+
     /**
      * Here and below are for dealing with moves, and processing captures.
      */
@@ -130,72 +211,167 @@ public class TablutBoardState extends BoardState {
         if (!isLegal(m)) { // isLegal checks if the player is the correct player.
             throw new IllegalArgumentException("Invalid move for current context. " + "Move: " + m.toPrettyString());
         }
+        Coord oldPos = m.getStartPosition();
+        Coord newPos = m.getEndPosition();
+        makeMove(Coordinates.squareOf(oldPos), Coordinates.squareOf(newPos));
+    }
 
-        // Process move...
+    /**
+     * Plays a move in place and returns an undo record that can be passed to
+     * undoMove to take it back. Unlike processMove, the move is not checked for
+     * legality, so it should come from one of the move generators of this state.
+     *
+     * This lets a search walk the game tree on a single state instead of cloning
+     * it for every node. Records must be undone in the reverse order they were
+     * made.
+     */
+    public long applyMove(TablutMove m) {
         Coord oldPos = m.getStartPosition();
         Coord newPos = m.getEndPosition();
-        Piece movingPiece = getPieceAt(oldPos);
-
-        // Get memory address to the list we are working on, then update it.
-        HashSet<Coord> playerCoordSet = getPlayerCoordSet();
-        playerCoordSet.remove(oldPos); // We can do this remove
-        playerCoordSet.add(newPos);
-        if (movingPiece == Piece.KING)
-            kingPosition = newPos;
-
-        // Now update board.
-        board[oldPos.x][oldPos.y] = Piece.EMPTY;
-        board[newPos.x][newPos.y] = movingPiece;
-
-        // Now check if a capture occurred. Only a piece next to the new position could
-        // have been captured.
-        List<Coord> captured = new ArrayList<>();
-        for (Coord enemy : Coordinates.getNeighbors(newPos)) {
-            if (isOpponentPieceAt(enemy)) {
-                boolean canCapture = true;
-
-                // If the opponent is a king, we need to check if its at the center or the
-                // neighbors of center.
-                // If it is, then it can only be captured on all 4 sides.
-                if (getPieceAt(enemy) == Piece.KING && Coordinates.isCenterOrNeighborCenter(kingPosition)) {
-                    for (Coord possibleAlly : Coordinates.getNeighbors(enemy)) {
-                        if (getPieceAt(possibleAlly) != Piece.BLACK && !Coordinates.isCenter(possibleAlly)) {
-                            canCapture = false;
-                            break;
-                        }
-                    }
-                } else { // Otherwise, check for the normal, sandwich-based capture rule.
-                    try {
-                        Coord sandwichCord = Coordinates.getSandwichCoord(newPos, enemy);
-                        canCapture = canCaptureWithCoord(sandwichCord);
-                    } catch (CoordinateDoesNotExistException e) {
-                        canCapture = false;
-                    }
-                }
-                if (canCapture) {
-                    captured.add(enemy);
-                }
-            }
+        return makeMove(Coordinates.squareOf(oldPos), Coordinates.squareOf(newPos));
+    }
+
+    // Same as above, for a packed move (see TablutMove.toPacked).
+    public long applyMove(int move) {
+        return makeMove(TablutMove.packedStart(move), TablutMove.packedEnd(move));
+    }
+
+    /**
+     * Takes back the move that produced the given undo record (see applyMove).
+     */
+    public void undoMove(long undo) {
+        int from = (int) (undo & UNDO_SQUARE_MASK);
+        int to = (int) ((undo >>> UNDO_TO_SHIFT) & UNDO_SQUARE_MASK);
+        int captures = (int) ((undo >>> UNDO_CAPTURES_SHIFT) & 0xF);
+        int mover = (int) ((undo >>> UNDO_PLAYER_SHIFT) & 1);
+        int opponent = (mover == MUSCOVITE) ? SWEDE : MUSCOVITE;
+
+        togglePiece(mover, to);
+        togglePiece(mover, from);
+        for (int d = 0; d < Coordinates.NUM_DIRECTIONS; d++) {
+            if ((captures & (1 << d)) != 0)
+                togglePiece(opponent, Coordinates.neighbor(to, d));
         }
+        kingSquare = (int) ((undo >>> UNDO_KING_SHIFT) & UNDO_SQUARE_MASK) - 1;
+        winner = decodeWinner((int) ((undo >>> UNDO_WINNER_SHIFT) & 0x7));
+        turnPlayer = mover;
+        turnNumber = (int) ((undo >>> UNDO_TURN_SHIFT) & 0xFFFF);
+        hashKey = keyHistory[--historySize];
+        if (threats != null && !threats.pop())
+            threats.recompute(this);
+    }
 
-        // Slaughter the captured enemies... like pigs. Or more like remove object
-        // memory addresses... same thing.
-        // Note, it is possible for multiple pieces to be captured at once, so we have a
-        // list of them.
-        for (Coord capturedCoord : captured) {
-            if (getPieceAt(capturedCoord) == Piece.KING) {
-                kingPosition = null;
+    /*
+     * Moves the piece on square "from" to square "to", processes the captures and
+     * passes the turn. The move is assumed to be legal. The returned undo record
+     * packs, from the lowest bit up: the two squares of the move (7 bits each), one
+     * bit per direction in which a piece was captured, the previous king square
+     * plus one (7 bits), the previous winner (3 bits), the player who moved (1 bit)
+     * and the previous turn number (16 bits).
+     */
+    private long makeMove(int from, int to) {
+        long undo = from | ((long) to << UNDO_TO_SHIFT) | ((long) (kingSquare + 1) << UNDO_KING_SHIFT)
+                | ((long) encodeWinner(winner) << UNDO_WINNER_SHIFT) | ((long) turnPlayer << UNDO_PLAYER_SHIFT)
+                | ((long) (turnNumber & 0xFFFF) << UNDO_TURN_SHIFT);
+
+        if (historySize == keyHistory.length)
+            keyHistory = Arrays.copyOf(keyHistory, 2 * historySize);
+        keyHistory[historySize++] = hashKey;
+
+        // Find the captures before anything moves (see captureDirections).
+        int captures = captureDirections(from, to);
+        undo |= (long) captures << UNDO_CAPTURES_SHIFT;
+        long changedLo = Bitboards.loBit(from) | Bitboards.loBit(to);
+        long changedHi = Bitboards.hiBit(from) | Bitboards.hiBit(to);
+        if (threats != null)
+            threats.push();
+
+        togglePiece(turnPlayer, from);
+        togglePiece(turnPlayer, to);
+        hashKey ^= Zobrist.pieceKey(turnPlayer, from) ^ Zobrist.pieceKey(turnPlayer, to);
+        if (from == kingSquare) {
+            kingSquare = to;
+            hashKey ^= Zobrist.kingKey(from) ^ Zobrist.kingKey(to);
+        }
+
+        // Slaughter the captured enemies. Note, it is possible for multiple pieces to
+        // be captured at once.
+        int opponent = getOpponent();
+        for (int d = 0; d < Coordinates.NUM_DIRECTIONS; d++) {
+            if ((captures & (1 << d)) == 0)
+                continue;
+            int enemy = Coordinates.neighbor(to, d);
+            if (enemy == kingSquare) {
+                kingSquare = -1;
+                hashKey ^= Zobrist.kingKey(enemy);
             } // the king has been captured!
-            getPlayerCoordSet(getOpponent()).remove(capturedCoord);
-            board[capturedCoord.x][capturedCoord.y] = Piece.EMPTY;
+            togglePiece(opponent, enemy);
+            hashKey ^= Zobrist.pieceKey(opponent, enemy);
+            changedLo |= Bitboards.loBit(enemy);
+            changedHi |= Bitboards.hiBit(enemy);
         }
+        if (threats != null)
+            threats.moved(this, changedLo, changedHi);
 
         // Update internal variables, winner, turn player, and turn number.
         if (turnPlayer != FIRST_PLAYER) {
             turnNumber += 1;
         }
-        turnPlayer = getOpponent();
+        turnPlayer = opponent;
+        hashKey ^= Zobrist.SIDE_KEY;
         updateWinner(); // Check if anybody won and update internal variables if so.
+        return undo;
+    }
+
+    /**
+     * Returns the 64-bit key of the current position. It covers the pieces, the
+     * king square and the side to move, and is updated incrementally as moves are
+     * played, so it is cheap enough to call at every node of a search.
+     */
+    public long getHashKey() {
+        return hashKey;
+    }
+
+    /**
+     * Returns how many times the current position already occurred earlier in the
+     * game (or in the line being searched).
+     */
+    public int getRepetitionCount() {
+        int count = 0;
+        // The side to move is part of the key, so only every other position can match.
+        for (int i = historySize - 2; i >= 0; i -= 2) {
+            if (keyHistory[i] == hashKey)
+                count++;
+        }
+        return count;
+    }
+
+    public boolean isRepetition() {
+        return getRepetitionCount() > 0;
+    }
+
+    // Computes the key of the position from scratch.
+    private long computeHashKey() {
+        long key = (turnPlayer == SWEDE) ? Zobrist.SIDE_KEY : 0L;
+        for (int square = 0; square < Bitboards.SQUARES; square++) {
+            if (isPlayerPieceAt(MUSCOVITE, square))
+                key ^= Zobrist.pieceKey(MUSCOVITE, square);
+            else if (isPlayerPieceAt(SWEDE, square))
+                key ^= Zobrist.pieceKey(SWEDE, square);
+        }
+        if (kingSquare >= 0)
+            key ^= Zobrist.kingKey(kingSquare);
+        return key;
+    }
+
+    // The winner is one of the players or one of the special constants of Board,
+    // which are all just below Integer.MAX_VALUE.
+    static int encodeWinner(int winner) {
+        return (winner == MUSCOVITE || winner == SWEDE) ? winner : 2 + (Integer.MAX_VALUE - winner);
+    }
+
+    static int decodeWinner(int code) {
+        return (code < 2) ? code : Integer.MAX_VALUE - (code - 2);
     }
 
     // Determines if a player has won by updating internal variable.
@@ -203,14 +379,14 @@ public class TablutBoardState extends BoardState {
         // Check if the king was captured -- MUSCOVITES WIN!
         // Also checking if the swedes even have any legal moves at all. If not, they
         // lose.
-        if (kingPosition == null || !playerHasALegalMove(SWEDE)) {
+        if (kingSquare < 0 || !playerHasALegalMove(SWEDE)) {
             winner = MUSCOVITE;
         }
 
         // Check if king is at corner -- SWEDES WIN!
         // Also checking if the muscovites even have any legal moves at all. If not,
         // they lose.
-        else if (Coordinates.isCorner(kingPosition) || !playerHasALegalMove(MUSCOVITE)) {
+        else if (Coordinates.isCorner(kingSquare) || !playerHasALegalMove(MUSCOVITE)) {
             winner = SWEDE;
         }
 
@@ -225,34 +401,163 @@ public class TablutBoardState extends BoardState {
      * desirable to select a subset of moves from specific positions.
      */
     public ArrayList<TablutMove> getAllLegalMoves() {
-        ArrayList<TablutMove> allMoves = new ArrayList<>();
-        for (Coord pos : getPlayerCoordSet()) {
-            allMoves.addAll(getLegalMovesForPosition(pos));
+        int[] moves = new int[MAX_LEGAL_MOVES];
+        int count = getAllLegalMoves(moves);
+        ArrayList<TablutMove> allMoves = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            allMoves.add(TablutMove.fromPacked(moves[i]));
         }
         return allMoves;
     }
 
     /**
-     * Check if there are any legal moves for the player.
+     * Writes all legal moves for the player into the given buffer as packed ints
+     * (see TablutMove.toPacked) and returns how many there are. Nothing is
+     * allocated, so searches can reuse one buffer of MAX_LEGAL_MOVES per ply.
+     */
+    public int getAllLegalMoves(int[] moves) {
+        int count = 0;
+        long lo = getPlayerLo(turnPlayer);
+        long hi = getPlayerHi(turnPlayer);
+        for (int w = 0; w < 2; w++) {
+            long pieces = (w == 0) ? lo : hi;
+            int base = (w == 0) ? 0 : Bitboards.LO_SQUARES;
+            for (; pieces != 0; pieces &= pieces - 1) {
+                count = addLegalMovesFrom(base + Long.numberOfTrailingZeros(pieces), moves, count);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Check if there are any legal moves for the player. This works on whole masks
+     * at once, so it costs the same whatever the number of pieces.
      */
     private boolean playerHasALegalMove(int player) {
-        for (Coord c : getPlayerCoordSet(player)) {
-            for (Coord neighbor : Coordinates.getNeighbors(c)) {
-                if (coordIsEmpty(neighbor)) {
-                    if (pieceIsAllowedAt(neighbor, getPieceAt(c))) {
-                        return true;
-                    }
-                    // Need another convoluted check just in case it is the center.
-                    if (Coordinates.isCenter(neighbor)) {
-                        int xDiff = neighbor.x - c.x;
-                        int yDiff = neighbor.y - c.y;
-                        if (coordIsEmpty(Coordinates.get(neighbor.x + xDiff, neighbor.y + yDiff)))
-                            return true;
-                    }
+        return hasALegalMove(player, muscovitesLo, muscovitesHi, swedesLo, swedesHi, kingSquare);
+    }
+
+    // Same as above, for the position given by the masks and king square.
+    private static boolean hasALegalMove(int player, long muscovitesLo, long muscovitesHi, long swedesLo,
+            long swedesHi, int kingSquare) {
+        long emptyLo = ~(muscovitesLo | swedesLo) & Bitboards.LO_MASK;
+        long emptyHi = ~(muscovitesHi | swedesHi) & Bitboards.HI_MASK;
+
+        // Any piece next to an empty square it is allowed on can move there.
+        long lo = (player == MUSCOVITE) ? muscovitesLo : swedesLo;
+        long hi = (player == MUSCOVITE) ? muscovitesHi : swedesHi;
+        if (player == SWEDE && kingSquare >= 0) {
+            lo &= ~Bitboards.loBit(kingSquare);
+            hi &= ~Bitboards.hiBit(kingSquare);
+            long kingLo = Bitboards.loBit(kingSquare);
+            long kingHi = Bitboards.hiBit(kingSquare);
+            if ((Bitboards.neighborsLo(kingLo, kingHi) & emptyLo) != 0
+                    || (Bitboards.neighborsHi(kingLo, kingHi) & emptyHi) != 0)
+                return true;
+        }
+        if ((Bitboards.neighborsLo(lo, hi) & emptyLo & ~RESTRICTED_LO) != 0
+                || (Bitboards.neighborsHi(lo, hi) & emptyHi & ~RESTRICTED_HI) != 0)
+            return true;
+
+        // The only other way out is across an empty center. The squares around the
+        // center are all in the low word.
+        if ((emptyLo & (1L << CENTER)) == 0)
+            return false;
+        for (int d = 0; d < Coordinates.NUM_DIRECTIONS; d++) {
+            int side = Coordinates.neighbor(CENTER, d);
+            int across = Coordinates.neighbor(CENTER, (d + 2) % Coordinates.NUM_DIRECTIONS);
+            if ((lo & (1L << side)) != 0 && (emptyLo & (1L << across)) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Counts the legal moves the given player would have if it were their turn,
+     * without building any moves. Useful as a mobility term in evaluations.
+     */
+    public int countLegalMoves(int player) {
+        int count = 0;
+        long lo = getPlayerLo(player);
+        long hi = getPlayerHi(player);
+        for (int w = 0; w < 2; w++) {
+            long pieces = (w == 0) ? lo : hi;
+            int base = (w == 0) ? 0 : Bitboards.LO_SQUARES;
+            for (; pieces != 0; pieces &= pieces - 1) {
+                int square = base + Long.numberOfTrailingZeros(pieces);
+                int x = Coordinates.squareX(square);
+                int y = Coordinates.squareY(square);
+                int alongColumn = Bitboards.slide(x, columnOccupancy(y));
+                int alongRow = Bitboards.slide(y, rowOccupancy(x));
+                if (square != kingSquare) {
+                    alongColumn &= ~RESTRICTED_LINES[y];
+                    alongRow &= ~RESTRICTED_LINES[x];
                 }
+                count += Integer.bitCount(alongColumn) + Integer.bitCount(alongRow);
             }
         }
-        return false;
+        return count;
+    }
+
+    /**
+     * Returns the move at the given index of the list getAllLegalMoves would
+     * build, as a packed int, without building the list. With countLegalMoves this
+     * lets a random legal move be drawn without allocating anything. Returns -1 if
+     * the index is out of range.
+     */
+    public int getLegalMove(int index) {
+        if (index < 0)
+            return -1;
+        long lo = getPlayerLo(turnPlayer);
+        long hi = getPlayerHi(turnPlayer);
+        for (int w = 0; w < 2; w++) {
+            long pieces = (w == 0) ? lo : hi;
+            int base = (w == 0) ? 0 : Bitboards.LO_SQUARES;
+            for (; pieces != 0; pieces &= pieces - 1) {
+                int square = base + Long.numberOfTrailingZeros(pieces);
+                int x = Coordinates.squareX(square);
+                int y = Coordinates.squareY(square);
+                int alongColumn = Bitboards.slide(x, columnOccupancy(y));
+                int alongRow = Bitboards.slide(y, rowOccupancy(x));
+                if (square != kingSquare) {
+                    alongColumn &= ~RESTRICTED_LINES[y];
+                    alongRow &= ~RESTRICTED_LINES[x];
+                }
+                if (index >= Integer.bitCount(alongColumn) + Integer.bitCount(alongRow)) {
+                    index -= Integer.bitCount(alongColumn) + Integer.bitCount(alongRow);
+                    continue;
+                }
+
+                // Same order as addLegalMovesFrom: -x, -y, +x, +y, nearest squares first.
+                int lowerColumn = alongColumn & ((1 << x) - 1);
+                int lowerRow = alongRow & ((1 << y) - 1);
+                int n = Integer.bitCount(lowerColumn);
+                if (index < n)
+                    return TablutMove.pack(square, Coordinates.square(nthSetBit(lowerColumn, n - 1 - index), y),
+                            turnPlayer);
+                index -= n;
+                n = Integer.bitCount(lowerRow);
+                if (index < n)
+                    return TablutMove.pack(square, Coordinates.square(x, nthSetBit(lowerRow, n - 1 - index)),
+                            turnPlayer);
+                index -= n;
+                int upperColumn = alongColumn & ~lowerColumn;
+                n = Integer.bitCount(upperColumn);
+                if (index < n)
+                    return TablutMove.pack(square, Coordinates.square(nthSetBit(upperColumn, index), y), turnPlayer);
+                index -= n;
+                return TablutMove.pack(square, Coordinates.square(x, nthSetBit(alongRow & ~lowerRow, index)),
+                        turnPlayer);
+            }
+        }
+        return -1;
+    }
+
+    // The position of the n-th lowest set bit of the mask, counting from 0.
+    private static int nthSetBit(int mask, int n) {
+        for (; n > 0; n--)
+            mask &= mask - 1;
+        return Integer.numberOfTrailingZeros(mask);
     }
 
     /**
@@ -263,56 +568,357 @@ public class TablutBoardState extends BoardState {
      */
     public ArrayList<TablutMove> getLegalMovesForPosition(Coord start) {
         ArrayList<TablutMove> legalMoves = new ArrayList<>();
+        int[] moves = new int[MAX_PIECE_MOVES];
+        int count = getLegalMovesForPosition(Coordinates.squareOf(start), moves);
+        for (int i = 0; i < count; i++) {
+            legalMoves.add(TablutMove.fromPacked(moves[i]));
+        }
+        return legalMoves;
+    }
 
+    /**
+     * Packed version of getLegalMovesForPosition, for the piece on the given square
+     * (see Coordinates.square). The buffer needs room for MAX_PIECE_MOVES moves.
+     */
+    public int getLegalMovesForPosition(int square, int[] moves) {
         // Check that the piece being requested actually belongs to the player.
-        Piece piece = getPieceAt(start);
-        if (piecesToPlayer.get(piece) != turnPlayer) {
-            return legalMoves;
-        }
-
-        // Iterate along 4 directions.
-        List<Coord> goodCoords = new ArrayList<>();
-        goodCoords.addAll(getLegalCoordsInDirection(start, -1, 0)); // move in -x direction
-        goodCoords.addAll(getLegalCoordsInDirection(start, 0, -1)); // move in -y direction
-        goodCoords.addAll(getLegalCoordsInDirection(start, 1, 0)); // move in +x direction
-        goodCoords.addAll(getLegalCoordsInDirection(start, 0, 1)); // move in +y direction
-
-        /*
-         * Add the real moves now. We do not call isLegal here; this is because we
-         * efficiently enforce legality by only adding those that are legal. This makes
-         * for a more efficient method so people aren't slowed down by just figuring out
-         * what they can do.
-         */
-        for (Coord end : goodCoords) {
-            if (pieceIsAllowedAt(end, piece)) {// only king moves to corner or center, so need to check.
-                legalMoves.add(new TablutMove(start, end, this.turnPlayer));
+        if (!isPlayerPieceAt(turnPlayer, square)) {
+            return 0;
+        }
+        return addLegalMovesFrom(square, moves, 0);
+    }
+
+    /*
+     * Add the moves of the turn player's piece on the given square to the buffer,
+     * starting at index count, and return the new count. We do not call isLegal
+     * here; this is because we efficiently enforce legality by only adding those
+     * that are legal.
+     */
+    private int addLegalMovesFrom(int square, int[] moves, int count) {
+        int x = Coordinates.squareX(square);
+        int y = Coordinates.squareY(square);
+        int alongColumn = Bitboards.slide(x, columnOccupancy(y)); // reachable x's
+        int alongRow = Bitboards.slide(y, rowOccupancy(x)); // reachable y's
+        if (square != kingSquare) { // only king moves to corner or center, so need to check.
+            alongColumn &= ~RESTRICTED_LINES[y];
+            alongRow &= ~RESTRICTED_LINES[x];
+        }
+
+        // Keep the usual order: -x, -y, +x, +y, nearest squares first.
+        for (int m = alongColumn & ((1 << x) - 1); m != 0; m ^= Integer.highestOneBit(m))
+            moves[count++] = TablutMove.pack(square, Coordinates.square(31 - Integer.numberOfLeadingZeros(m), y),
+                    turnPlayer);
+        for (int m = alongRow & ((1 << y) - 1); m != 0; m ^= Integer.highestOneBit(m))
+            moves[count++] = TablutMove.pack(square, Coordinates.square(x, 31 - Integer.numberOfLeadingZeros(m)),
+                    turnPlayer);
+        for (int m = alongColumn >>> (x + 1) << (x + 1); m != 0; m &= m - 1)
+            moves[count++] = TablutMove.pack(square, Coordinates.square(Integer.numberOfTrailingZeros(m), y),
+                    turnPlayer);
+        for (int m = alongRow >>> (y + 1) << (y + 1); m != 0; m &= m - 1)
+            moves[count++] = TablutMove.pack(square, Coordinates.square(x, Integer.numberOfTrailingZeros(m)),
+                    turnPlayer);
+        return count;
+    }
+
+    /**
+     * Writes the "noisy" moves of the turn player into the buffer as packed ints
+     * and returns how many there are. These are the moves a quiescence search
+     * looks at: every capture (completing a four-side surround of the king
+     * included), then the king moves that reach a corner or open a clear line to
+     * one. The buffer needs room for MAX_LEGAL_MOVES moves.
+     */
+    public int getNoisyMoves(int[] moves) {
+        int count = 0;
+        long emptyLo = ~(muscovitesLo | swedesLo) & Bitboards.LO_MASK;
+        long emptyHi = ~(muscovitesHi | swedesHi) & Bitboards.HI_MASK;
+        int opponent = getOpponent();
+
+        // A capture has to land next to an enemy piece. The pieces that can land on
+        // such a square are found by walking outwards from it to the first piece.
+        long targetsLo = Bitboards.neighborsLo(getPlayerLo(opponent), getPlayerHi(opponent)) & emptyLo;
+        long targetsHi = Bitboards.neighborsHi(getPlayerLo(opponent), getPlayerHi(opponent)) & emptyHi;
+        for (int w = 0; w < 2; w++) {
+            long targets = (w == 0) ? targetsLo : targetsHi;
+            int base = (w == 0) ? 0 : Bitboards.LO_SQUARES;
+            for (; targets != 0; targets &= targets - 1) {
+                int to = base + Long.numberOfTrailingZeros(targets);
+                for (int d = 0; d < Coordinates.NUM_DIRECTIONS; d++) {
+                    int from = firstPieceFrom(to, d, emptyLo, emptyHi);
+                    if (from >= 0 && isPlayerPieceAt(turnPlayer, from) && pieceIsAllowedAt(to, from)
+                            && captureDirections(from, to) != 0)
+                        moves[count++] = TablutMove.pack(from, to, turnPlayer);
+                }
             }
         }
-        return legalMoves;
+
+        // King moves that win, or that leave the king a clear run to a corner.
+        if (turnPlayer == SWEDE && kingSquare >= 0) {
+            int kingMovesStart = count;
+            count = addLegalMovesFrom(kingSquare, moves, count);
+            int kept = kingMovesStart;
+            for (int i = kingMovesStart; i < count; i++) {
+                int to = TablutMove.packedEnd(moves[i]);
+                if (captureDirections(kingSquare, to) == 0
+                        && (Coordinates.isCorner(to) || kingSeesCorner(to, kingSquare)))
+                    moves[kept++] = moves[i];
+            }
+            count = kept;
+        }
+        return count;
+    }
+
+    // Whether a king on square "king" could slide to a corner, if square "vacated"
+    // were empty.
+    private boolean kingSeesCorner(int king, int vacated) {
+        int x = Coordinates.squareX(king);
+        int y = Coordinates.squareY(king);
+        int vacatedX = Coordinates.squareX(vacated);
+        int vacatedY = Coordinates.squareY(vacated);
+        int ends = 1 | (1 << (BOARD_SIZE - 1));
+        if (x == 0 || x == BOARD_SIZE - 1) {
+            int occupancy = rowOccupancy(x) & ~((vacatedX == x) ? 1 << vacatedY : 0);
+            if ((Bitboards.slide(y, occupancy) & ends) != 0)
+                return true;
+        }
+        if (y == 0 || y == BOARD_SIZE - 1) {
+            int occupancy = columnOccupancy(y) & ~((vacatedY == y) ? 1 << vacatedX : 0);
+            if ((Bitboards.slide(x, occupancy) & ends) != 0)
+                return true;
+        }
+        return false;
     }
 
-    private List<Coord> getLegalCoordsInDirection(Coord start, int x, int y) {
-        ArrayList<Coord> coords = new ArrayList<>();
-        assert (!(x != 0 && y != 0));
-        int startPos = (x != 0) ? start.x : start.y; // starting at x or y
-        int incr = (x != 0) ? x : y; // incrementing the x or y value
-        int endIdx = (incr == 1) ? BOARD_SIZE - 1 : 0; // moving in the 0 or 8 direction
-
-        for (int i = startPos + incr; incr * i <= endIdx; i += incr) { // increasing/decreasing functionality
-            // new coord is an x coord change or a y coord change
-            Coord coord = (x != 0) ? Coordinates.get(i, start.y) : Coordinates.get(start.x, i);
-            if (coordIsEmpty(coord)) {
-                coords.add(coord);
-            } else {
-                break;
+    /*
+     * Works out which opponent pieces the turn player would capture by moving the
+     * piece on "from" to "to", without changing anything. Returns one bit per
+     * direction (see Coordinates.neighbor) in which the neighbor of "to" would be
+     * captured. Only a piece next to the new position can be captured.
+     */
+    int captureDirections(int from, int to) {
+        int captures = 0;
+        int opponent = getOpponent();
+        for (int d = 0; d < Coordinates.NUM_DIRECTIONS; d++) {
+            int enemy = Coordinates.neighbor(to, d);
+            if (enemy < 0 || !isPlayerPieceAt(opponent, enemy))
+                continue;
+
+            boolean canCapture;
+            // If the opponent is a king at the center or the neighbors of center, it can
+            // only be captured on all 4 sides.
+            if (enemy == kingSquare && Coordinates.isCenterOrNeighborCenter(enemy)) {
+                canCapture = true;
+                for (int a = 0; a < Coordinates.NUM_DIRECTIONS; a++) {
+                    int ally = Coordinates.neighbor(enemy, a);
+                    boolean muscoviteAtAlly = ally == to || (ally != from && isPlayerPieceAt(MUSCOVITE, ally));
+                    if (!muscoviteAtAlly && ally != CENTER) {
+                        canCapture = false;
+                        break;
+                    }
+                }
+            } else { // Otherwise, check for the normal, sandwich-based capture rule.
+                int sandwich = Coordinates.neighbor(enemy, d);
+                canCapture = sandwich >= 0 && sandwich != from && canCaptureWithSquare(sandwich);
+                canCapture |= sandwich == from && Bitboards.isSet(RESTRICTED_LO, RESTRICTED_HI, sandwich);
             }
+            if (canCapture)
+                captures |= 1 << d;
         }
-        return coords;
+        return captures;
+    }
+
+    /*
+     * Capture previews. These answer questions about a move without playing it, so
+     * they neither change nor copy the state and are safe on a shared state. The
+     * move is assumed to be legal for the turn player, as for applyMove.
+     */
+
+    // The coordinates of the opponent pieces the move would capture.
+    public List<Coord> getCaptures(TablutMove move) {
+        int to = Coordinates.squareOf(move.getEndPosition());
+        int captures = captureDirections(Coordinates.squareOf(move.getStartPosition()), to);
+        List<Coord> captured = new ArrayList<>(Integer.bitCount(captures));
+        for (int d = 0; d < Coordinates.NUM_DIRECTIONS; d++) {
+            if ((captures & (1 << d)) != 0)
+                captured.add(Coordinates.get(Coordinates.neighbor(to, d)));
+        }
+        return captured;
+    }
+
+    // The number of opponent pieces the packed move would capture.
+    public int countCaptures(int move) {
+        return Integer.bitCount(captureDirections(TablutMove.packedStart(move), TablutMove.packedEnd(move)));
+    }
+
+    // The value getWinner() would have after the move.
+    public int getWinnerAfter(TablutMove move) {
+        int from = Coordinates.squareOf(move.getStartPosition());
+        int to = Coordinates.squareOf(move.getEndPosition());
+        return getWinnerAfter(TablutMove.pack(from, to, turnPlayer));
+    }
+
+    // Same as above, for a packed move. Follows updateWinner.
+    public int getWinnerAfter(int move) {
+        long[] after = positionAfter(TablutMove.packedStart(move), TablutMove.packedEnd(move));
+        int king = (int) after[4];
+        if (king < 0 || !hasALegalMove(SWEDE, after[0], after[1], after[2], after[3], king))
+            return MUSCOVITE;
+        if (Coordinates.isCorner(king) || !hasALegalMove(MUSCOVITE, after[0], after[1], after[2], after[3], king))
+            return SWEDE;
+        int turnNumberAfter = (turnPlayer != FIRST_PLAYER) ? turnNumber + 1 : turnNumber;
+        if (turnNumberAfter > MAX_TURNS || winner != Board.NOBODY)
+            return Board.DRAW;
+        return winner;
+    }
+
+    // Whether the move wins the game for the player making it.
+    public boolean isWinningMove(TablutMove move) {
+        return getWinnerAfter(move) == turnPlayer;
+    }
+
+    /**
+     * Whether, after the move, the muscovites could capture the king with their
+     * next move. Only swede moves can expose the king, so this is always false for
+     * a muscovite move, and it is false if the move ends the game.
+     */
+    public boolean exposesKing(TablutMove move) {
+        int from = Coordinates.squareOf(move.getStartPosition());
+        int to = Coordinates.squareOf(move.getEndPosition());
+        if (turnPlayer != SWEDE || getWinnerAfter(TablutMove.pack(from, to, turnPlayer)) != Board.NOBODY)
+            return false;
+        long[] after = positionAfter(from, to);
+        long emptyLo = ~(after[0] | after[2]) & Bitboards.LO_MASK;
+        long emptyHi = ~(after[1] | after[3]) & Bitboards.HI_MASK;
+        int king = (int) after[4];
+        return king >= 0 && isCapturable(king, king, after[0], after[1], emptyLo, emptyHi);
+    }
+
+    /*
+     * The position the move would lead to, as { muscovitesLo, muscovitesHi,
+     * swedesLo, swedesHi, kingSquare }.
+     */
+    private long[] positionAfter(int from, int to) {
+        int captures = captureDirections(from, to);
+        long[] after = { muscovitesLo, muscovitesHi, swedesLo, swedesHi, kingSquare };
+        int mover = (turnPlayer == MUSCOVITE) ? 0 : 2;
+        int enemy = 2 - mover;
+        after[mover] ^= Bitboards.loBit(from) | Bitboards.loBit(to);
+        after[mover + 1] ^= Bitboards.hiBit(from) | Bitboards.hiBit(to);
+        if (from == kingSquare)
+            after[4] = to;
+        for (int d = 0; d < Coordinates.NUM_DIRECTIONS; d++) {
+            if ((captures & (1 << d)) == 0)
+                continue;
+            int captured = Coordinates.neighbor(to, d);
+            after[enemy] &= ~Bitboards.loBit(captured);
+            after[enemy + 1] &= ~Bitboards.hiBit(captured);
+            if (captured == kingSquare)
+                after[4] = -1;
+        }
+        return after;
+    }
+
+    /*
+     * The capture-reach rules, shared by the previews above, ThreatMap, the noisy
+     * move generator and ExchangeEvaluator. They work on masks rather than on the
+     * state, so they can be asked about positions that were never played.
+     */
+
+    /**
+     * Whether the piece on the square could be captured by the attacker's next
+     * move, in the position given by the attacker's pieces and the empty squares.
+     * The king on or next to the center needs all four sides (the center counts as
+     * one); any other piece needs a sandwich with an attacker, a corner or the
+     * center. The capturing piece has to slide onto the last open square.
+     */
+    static boolean isCapturable(int square, int kingSquare, long attackersLo, long attackersHi, long emptyLo,
+            long emptyHi) {
+        if (square == kingSquare && Coordinates.isCenterOrNeighborCenter(square)) {
+            // All four sides are needed: exactly one may still be open.
+            int open = -1;
+            for (int d = 0; d < Coordinates.NUM_DIRECTIONS; d++) {
+                int side = Coordinates.neighbor(square, d);
+                if (side == CENTER || Bitboards.isSet(attackersLo, attackersHi, side))
+                    continue;
+                if (open >= 0)
+                    return false;
+                open = side;
+            }
+            return open >= 0 && canLand(open, kingSquare, attackersLo, attackersHi, emptyLo, emptyHi);
+        }
+        for (int d = 0; d < Coordinates.NUM_DIRECTIONS; d++) {
+            int side = Coordinates.neighbor(square, d);
+            int sandwich = Coordinates.neighbor(square, (d + 2) % Coordinates.NUM_DIRECTIONS);
+            if (side < 0 || sandwich < 0)
+                continue;
+            boolean hostile = Bitboards.isSet(RESTRICTED_LO, RESTRICTED_HI, sandwich)
+                    || Bitboards.isSet(attackersLo, attackersHi, sandwich);
+            if (hostile && canLand(side, kingSquare, attackersLo, attackersHi, emptyLo, emptyHi))
+                return true;
+        }
+        return false;
+    }
+
+    // Whether one of the given pieces could slide onto the square. Only the king
+    // may land on a corner or the center.
+    static boolean canLand(int square, int kingSquare, long piecesLo, long piecesHi, long emptyLo, long emptyHi) {
+        if (!Bitboards.isSet(emptyLo, emptyHi, square))
+            return false;
+        boolean restricted = Bitboards.isSet(RESTRICTED_LO, RESTRICTED_HI, square);
+        for (int d = 0; d < Coordinates.NUM_DIRECTIONS; d++) {
+            int from = firstPieceFrom(square, d, emptyLo, emptyHi);
+            if (from >= 0 && Bitboards.isSet(piecesLo, piecesHi, from) && (!restricted || from == kingSquare))
+                return true;
+        }
+        return false;
+    }
+
+    // The first occupied square seen walking from the square in the given
+    // direction, or -1 if the walk leaves the board. It is the only piece that
+    // could slide onto the square from that side.
+    static int firstPieceFrom(int square, int direction, long emptyLo, long emptyHi) {
+        int from = Coordinates.neighbor(square, direction);
+        while (from >= 0 && Bitboards.isSet(emptyLo, emptyHi, from))
+            from = Coordinates.neighbor(from, direction);
+        return from;
+    }
+
+    /*
+     * Threat maps: the pieces of a player that the opponent could capture with
+     * their next move, whoever is to move (see ThreatMap). Once tracking is turned
+     * on, the maps are kept up to date as moves are made and taken back, which is
+     * much cheaper than working them out at every node; without it they are
+     * worked out on every call.
+     */
+    public void setThreatTracking(boolean tracking) {
+        if (tracking && threats == null)
+            threats = new ThreatMap(this);
+        else if (!tracking)
+            threats = null;
+    }
+
+    public boolean isThreatTracking() {
+        return threats != null;
+    }
+
+    public long getHangingLo(int player) {
+        if (threats != null)
+            return threats.getHangingLo(player);
+        return ThreatMap.hanging(this, player, getPlayerLo(player), 0);
+    }
+
+    public long getHangingHi(int player) {
+        if (threats != null)
+            return threats.getHangingHi(player);
+        return ThreatMap.hanging(this, player, getPlayerHi(player), Bitboards.LO_SQUARES);
     }
 
-    // Determines whether or not this coord is a valid coord we can sandwich with.
-    private boolean canCaptureWithCoord(Coord c) {
-        return Coordinates.isCorner(c) || Coordinates.isCenter(c) || piecesToPlayer.get(getPieceAt(c)) == turnPlayer;
+    public int countHangingPieces(int player) {
+        return Bitboards.count(getHangingLo(player), getHangingHi(player));
+    }
+
+    // Determines whether or not this square is a valid square we can sandwich with.
+    private boolean canCaptureWithSquare(int square) {
+        return Bitboards.isSet(RESTRICTED_LO, RESTRICTED_HI, square) || isPlayerPieceAt(turnPlayer, square);
     }
 
     // Returns all of the coordinates of pieces belonging to the current player.
@@ -320,22 +926,29 @@ public class TablutBoardState extends BoardState {
         if (turnPlayer != MUSCOVITE && turnPlayer != SWEDE) {
             return null;
         }
-        return new HashSet<Coord>(getPlayerCoordSet(turnPlayer)); // Copy the set so no funny business.
+        return getPlayerCoordSet(turnPlayer); // A fresh set, so no funny business.
     }
 
     public HashSet<Coord> getOpponentPieceCoordinates() {
         if (turnPlayer != MUSCOVITE && turnPlayer != SWEDE) {
             return null;
         }
-        return new HashSet<Coord>(getPlayerCoordSet(getOpponent())); // Copy the set so no funny business.
-    }
-
-    private HashSet<Coord> getPlayerCoordSet() {
-        return getPlayerCoordSet(turnPlayer);
+        return getPlayerCoordSet(getOpponent()); // A fresh set, so no funny business.
     }
 
     private HashSet<Coord> getPlayerCoordSet(int player) {
-        return (player == MUSCOVITE) ? muscoviteCoords : swedeCoords;
+        HashSet<Coord> coords = new HashSet<>();
+        long lo = getPlayerLo(player);
+        long hi = getPlayerHi(player);
+        for (int w = 0; w < 2; w++) {
+            long pieces = (w == 0) ? lo : hi;
+            int base = (w == 0) ? 0 : Bitboards.LO_SQUARES;
+            for (; pieces != 0; pieces &= pieces - 1) {
+                int square = base + Long.numberOfTrailingZeros(pieces);
+                coords.add(Coordinates.get(square));
+            }
+        }
+        return coords;
     }
 
     public boolean isLegal(TablutMove move) {
@@ -343,37 +956,45 @@ public class TablutBoardState extends BoardState {
         if (turnPlayer != move.getPlayerID() || move.getPlayerID() == ILLEGAL)
             return false;
 
-        // Get useful things.
+        // Get useful things. Getting the coords checks that they are on the board.
         Coord start = move.getStartPosition();
         Coord end = move.getEndPosition();
-        Piece piece = getPieceAt(start); // this will check if the position is on the board
+        return isLegalMove(Coordinates.squareOf(start), Coordinates.squareOf(end));
+    }
 
-        // Check that the piece being requested actually belongs to the player.
-        if (piecesToPlayer.get(piece) != turnPlayer)
-            return false;
+    // Same as above, for a packed move (see TablutMove.toPacked).
+    public boolean isLegal(int move) {
+        int from = TablutMove.packedStart(move);
+        int to = TablutMove.packedEnd(move);
+        return TablutMove.packedPlayer(move) == turnPlayer && from < Bitboards.SQUARES && to < Bitboards.SQUARES
+                && isLegalMove(from, to);
+    }
 
-        // Next, make sure move doesn't end on a piece.
-        if (!coordIsEmpty(end))
+    // The checks of isLegal that follow the player check, on squares.
+    private boolean isLegalMove(int from, int to) {
+        // Check that the piece being requested actually belongs to the player.
+        if (!isPlayerPieceAt(turnPlayer, from))
             return false;
 
-        // Next, make sure the move is actually a move.
-        int coordDiff = start.maxDifference(end);
-        if (coordDiff == 0)
+        // Next, make sure move doesn't end on a piece. This also rules out a null move.
+        if (!squareIsEmpty(to))
             return false;
 
         // Now for the actual game logic. First we make sure it is moving like a rook.
-        if (!(start.x == end.x || start.y == end.y))
+        int startX = Coordinates.squareX(from), startY = Coordinates.squareY(from);
+        int endX = Coordinates.squareX(to), endY = Coordinates.squareY(to);
+        if (!(startX == endX || startY == endY))
             return false;
 
         // Now we make sure it isn't moving through any other pieces.
-        for (Coord throughCoordinate : start.getCoordsBetween(end)) {
-            if (!coordIsEmpty(throughCoordinate))
-                return false;
-        }
+        int reachable = (startX == endX) ? Bitboards.slide(startY, rowOccupancy(startX)) & (1 << endY)
+                : Bitboards.slide(startX, columnOccupancy(startY)) & (1 << endX);
+        if (reachable == 0)
+            return false;
 
         // Make sure, if its a corner or center, that the king is the only one able to
         // go there.
-        if (!pieceIsAllowedAt(end, piece))
+        if (!pieceIsAllowedAt(to, from))
             return false;
 
         // All of the conditions have been satisfied, we have a legal move!
@@ -382,23 +1003,37 @@ public class TablutBoardState extends BoardState {
 
     /* ----- Useful helper functions. ----- */
     public Piece getPieceAt(int xPosition, int yPosition) {
-        return board[xPosition][yPosition];
+        if (!onBoard(xPosition, yPosition)) {
+            throw new ArrayIndexOutOfBoundsException(
+                    String.format("(%d %d) is not on the board.", xPosition, yPosition));
+        }
+        return getPieceAt(Coordinates.square(xPosition, yPosition));
     }
 
     public Piece getPieceAt(Coord position) {
         return getPieceAt(position.x, position.y);
     }
 
+    private Piece getPieceAt(int square) {
+        if (square == kingSquare)
+            return Piece.KING;
+        if (Bitboards.isSet(swedesLo, swedesHi, square))
+            return Piece.WHITE;
+        if (Bitboards.isSet(muscovitesLo, muscovitesHi, square))
+            return Piece.BLACK;
+        return Piece.EMPTY;
+    }
+
     public boolean turnPlayerCanMoveFrom(Coord position) {
-        return piecesToPlayer.get(getPieceAt(position)) == turnPlayer;
+        return isPlayerPieceAt(turnPlayer, Coordinates.squareOf(position));
     }
 
     public boolean isOpponentPieceAt(Coord position) {
-        return !(coordIsEmpty(position)) && piecesToPlayer.get(getPieceAt(position)) != turnPlayer;
+        return isPlayerPieceAt(getOpponent(), Coordinates.squareOf(position));
     }
 
     public boolean coordIsEmpty(Coord c) {
-        return getPieceAt(c) == Piece.EMPTY;
+        return squareIsEmpty(Coordinates.squareOf(c));
     }
 
     public int getOpponent() {
@@ -406,17 +1041,69 @@ public class TablutBoardState extends BoardState {
     }
 
     public int getNumberPlayerPieces(int player) {
-        return getPlayerCoordSet(player).size();
+        return Bitboards.count(getPlayerLo(player), getPlayerHi(player));
+    }
+
+    // The square of the king (see Bitboards), or -1 if it has been captured.
+    public int getKingSquare() {
+        return kingSquare;
     }
 
     public Coord getKingPosition() {
-        return kingPosition;
+        if (kingSquare < 0)
+            return null;
+        return Coordinates.get(kingSquare);
     }
 
     // If its a king, it can move anywhere. Otherwise, make sure it isn't trying to
     // move to the center or a corner.
-    private boolean pieceIsAllowedAt(Coord pos, Piece piece) {
-        return piece == Piece.KING || !(Coordinates.isCorner(pos) || Coordinates.isCenter(pos));
+    private boolean pieceIsAllowedAt(int square, int pieceSquare) {
+        return pieceSquare == kingSquare || !Bitboards.isSet(RESTRICTED_LO, RESTRICTED_HI, square);
+    }
+
+    private boolean isPlayerPieceAt(int player, int square) {
+        return Bitboards.isSet(getPlayerLo(player), getPlayerHi(player), square);
+    }
+
+    private boolean squareIsEmpty(int square) {
+        return !Bitboards.isSet(muscovitesLo | swedesLo, muscovitesHi | swedesHi, square);
+    }
+
+    // The masks of a player's pieces (see Bitboards), the king included for the swedes.
+    long getPlayerLo(int player) {
+        return (player == MUSCOVITE) ? muscovitesLo : swedesLo;
+    }
+
+    long getPlayerHi(int player) {
+        return (player == MUSCOVITE) ? muscovitesHi : swedesHi;
+    }
+
+    // Adds or removes a piece of the given player.
+    private void togglePiece(int player, int square) {
+        if (player == MUSCOVITE) {
+            muscovitesLo ^= Bitboards.loBit(square);
+            muscovitesHi ^= Bitboards.hiBit(square);
+        } else {
+            swedesLo ^= Bitboards.loBit(square);
+            swedesHi ^= Bitboards.hiBit(square);
+        }
+        int transposed = Bitboards.transpose(square);
+        occupiedTransposedLo ^= Bitboards.loBit(transposed);
+        occupiedTransposedHi ^= Bitboards.hiBit(transposed);
+    }
+
+    // The 9-bit occupancy of row x; bit i is square (x, i).
+    int rowOccupancy(int x) {
+        return Bitboards.row(muscovitesLo | swedesLo, muscovitesHi | swedesHi, x);
+    }
+
+    // The 9-bit occupancy of column y; bit i is square (i, y).
+    int columnOccupancy(int y) {
+        return Bitboards.row(occupiedTransposedLo, occupiedTransposedHi, y);
+    }
+
+    private static boolean onBoard(int x, int y) {
+        return x >= 0 && x < BOARD_SIZE && y >= 0 && y < BOARD_SIZE;
     }
 
     /* ----- Used by server. ----- */
@@ -458,8 +1145,20 @@ public class TablutBoardState extends BoardState {
 
     @Override
     public Move getRandomMove() {
-        ArrayList<TablutMove> moves = getAllLegalMoves();
-        return moves.get(rand.nextInt(moves.size()));
+        if (rand == null)
+            rand = new Random(1917);
+        return getRandomMove(rand);
+    }
+
+    /**
+     * A random legal move drawn from the given generator. This does not touch the
+     * state, so threads sharing a state can each pass their own generator (for
+     * example ThreadLocalRandom.current()).
+     */
+    public TablutMove getRandomMove(Random random) {
+        int[] moves = new int[MAX_LEGAL_MOVES];
+        int count = getAllLegalMoves(moves);
+        return TablutMove.fromPacked(moves[random.nextInt(count)]);
     }
 
     /*** Debugging functionality is found below. ***/
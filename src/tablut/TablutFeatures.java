@@ -0,0 +1,80 @@
+package tablut;
+
+import coordinates.Coordinates;
+
+/**
+ * The features of a tablut position that evaluations are built from (see
+ * LinearEvaluator).
+ *
+ * Every feature is read straight off the masks of the state, or off the
+ * piece-square sums the evaluator keeps up to date (see PieceSquareSums), so
+ * extracting them never scans the board. Features are given from the swedes'
+ * side: a positive value is good for the swedes, except for the two king
+ * features, which are raw counts and get negative weights.
+ */
+public final class TablutFeatures {
+    public static final int MATERIAL = 0; // swede pieces (not the king) minus muscovite pieces
+    public static final int KING_CORNER_DISTANCE = 1; // Manhattan distance from the king to the closest corner
+    public static final int KING_ATTACKERS = 2; // muscovites next to the king
+    public static final int EDGE_CONTROL = 3; // swede pieces on the edge minus muscovite pieces on the edge
+    public static final int PIECE_SQUARE = 4; // swede piece-square sum minus the muscovite one
+    public static final int NUM_FEATURES = 5;
+
+    /*
+     * Piece-square values. Muscovites are worth most on the squares that block the
+     * way to the corners, two steps from them; swedes are worth more the further
+     * out they get from the crowded center.
+     */
+    private static final int[][] pieceSquareValues = new int[2][Bitboards.SQUARES];
+    static {
+        Coordinates.setAllCoordinates(Bitboards.SIZE);
+        int last = Bitboards.SIZE - 1;
+        for (int square = 0; square < Bitboards.SQUARES; square++) {
+            int x = Coordinates.squareX(square);
+            int y = Coordinates.squareY(square);
+            int cornerDistance = Math.min(x, last - x) + Math.min(y, last - y);
+            int centerDistance = Math.max(Math.abs(x - last / 2), Math.abs(y - last / 2));
+            pieceSquareValues[TablutBoardState.MUSCOVITE][square] = Math.max(0, 4 - Math.abs(cornerDistance - 2));
+            pieceSquareValues[TablutBoardState.SWEDE][square] = centerDistance;
+        }
+    }
+
+    private TablutFeatures() {
+    }
+
+    // A copy of the default piece-square table, indexed by player and then by square.
+    public static int[][] pieceSquareValues() {
+        return new int[][] { pieceSquareValues[0].clone(), pieceSquareValues[1].clone() };
+    }
+
+    /**
+     * Writes the features of the state into the given array, which needs room for
+     * NUM_FEATURES values. The piece-square sums are brought up to date with the
+     * state first.
+     */
+    public static void extract(TablutBoardState state, PieceSquareSums pieceSquares, int[] features) {
+        long muscovitesLo = state.getPlayerLo(TablutBoardState.MUSCOVITE);
+        long muscovitesHi = state.getPlayerHi(TablutBoardState.MUSCOVITE);
+        long swedesLo = state.getPlayerLo(TablutBoardState.SWEDE);
+        long swedesHi = state.getPlayerHi(TablutBoardState.SWEDE);
+        int kingSquare = state.getKingSquare();
+
+        int swedes = Bitboards.count(swedesLo, swedesHi) - ((kingSquare >= 0) ? 1 : 0);
+        features[MATERIAL] = swedes - Bitboards.count(muscovitesLo, muscovitesHi);
+        if (kingSquare >= 0) {
+            long kingLo = Bitboards.loBit(kingSquare);
+            long kingHi = Bitboards.hiBit(kingSquare);
+            features[KING_CORNER_DISTANCE] = Coordinates.distanceToClosestCorner(kingSquare);
+            features[KING_ATTACKERS] = Bitboards.count(Bitboards.neighborsLo(kingLo, kingHi) & muscovitesLo,
+                    Bitboards.neighborsHi(kingLo, kingHi) & muscovitesHi);
+        } else {
+            features[KING_CORNER_DISTANCE] = Bitboards.SIZE - 1; // as far as it gets
+            features[KING_ATTACKERS] = Coordinates.NUM_DIRECTIONS;
+        }
+        features[EDGE_CONTROL] = Bitboards.count(swedesLo & Bitboards.EDGE_LO, swedesHi & Bitboards.EDGE_HI)
+                - Bitboards.count(muscovitesLo & Bitboards.EDGE_LO, muscovitesHi & Bitboards.EDGE_HI);
+        pieceSquares.update(state);
+        features[PIECE_SQUARE] = pieceSquares.getSum(TablutBoardState.SWEDE)
+                - pieceSquares.getSum(TablutBoardState.MUSCOVITE);
+    }
+}
@@ -5,8 +5,21 @@ import coordinates.Coord;
 import coordinates.Coordinates;
 import tablut.TablutBoardState;
 
+/**
+ * A move of a piece from one square to another.
+ *
+ * Every move a piece can make on the board exists once in a shared table, and
+ * the generators of TablutBoardState, fromPacked, get and parse all hand out
+ * those shared instances instead of allocating. Shared moves can be compared
+ * with ==, and their packed form (see toPacked) is a compact id that can index
+ * history or killer tables of size NUM_PACKED_IDS. Shared moves cannot be
+ * changed in place: use withPlayerID to get the same move for another player,
+ * or the constructors for a move of your own that the setters can change.
+ */
 public class TablutMove extends Move {
 
+    public static final int NUM_PACKED_IDS = 1 << 15;
+
     /* We need to store the following information about a move. */
     private int playerId = TablutBoardState.ILLEGAL;
     private int xStart = -1;
@@ -14,6 +27,27 @@ public class TablutMove extends Move {
     private int xEnd = -1;
     private int yEnd = -1;
     private boolean fromBoard = false;
+    private boolean shared = false;
+
+    // The shared moves, indexed by packed id. Ids that aren't rook moves are null.
+    private static final TablutMove[] sharedMoves = new TablutMove[NUM_PACKED_IDS];
+    static {
+        Coordinates.setAllCoordinates(Bitboards.SIZE);
+        for (int start = 0; start < Bitboards.SQUARES; start++) {
+            for (int end = 0; end < Bitboards.SQUARES; end++) {
+                boolean sameLine = Coordinates.squareX(start) == Coordinates.squareX(end)
+                        || Coordinates.squareY(start) == Coordinates.squareY(end);
+                if (start == end || !sameLine)
+                    continue;
+                for (int player : new int[] { TablutBoardState.MUSCOVITE, TablutBoardState.SWEDE }) {
+                    TablutMove move = new TablutMove(Coordinates.squareX(start), Coordinates.squareY(start),
+                            Coordinates.squareX(end), Coordinates.squareY(end), player);
+                    move.shared = true;
+                    sharedMoves[pack(start, end, player)] = move;
+                }
+            }
+        }
+    }
 
     /* Constructors */
     public TablutMove(Coord start, Coord end, int playerId) {
@@ -29,16 +63,54 @@ public class TablutMove extends Move {
     }
 
     public TablutMove(String formatString) {
+        int[] components = parseComponents(formatString);
+        this.xStart = components[0];
+        this.yStart = components[1];
+        this.xEnd = components[2];
+        this.yEnd = components[3];
+        this.playerId = components[4];
+    }
+
+    /**
+     * Returns the shared instance of the given move. Moves that are not rook moves
+     * on the board have no shared instance, so a new one is made for them.
+     */
+    public static TablutMove get(int xStart, int yStart, int xEnd, int yEnd, int playerId) {
+        if (onBoard(xStart, yStart) && onBoard(xEnd, yEnd)
+                && (playerId == TablutBoardState.MUSCOVITE || playerId == TablutBoardState.SWEDE)) {
+            TablutMove move = sharedMoves[pack(Coordinates.square(xStart, yStart), Coordinates.square(xEnd, yEnd),
+                    playerId)];
+            if (move != null)
+                return move;
+        }
+        return new TablutMove(xStart, yStart, xEnd, yEnd, playerId);
+    }
+
+    public static TablutMove get(Coord start, Coord end, int playerId) {
+        return get(start.x, start.y, end.x, end.y, playerId);
+    }
+
+    // Same as the String constructor, but hands out the shared instance.
+    public static TablutMove parse(String formatString) {
+        int[] c = parseComponents(formatString);
+        return get(c[0], c[1], c[2], c[3], c[4]);
+    }
+
+    private static int[] parseComponents(String formatString) {
         String[] components = formatString.split(" ");
+        int[] values = new int[5];
         try {
-            this.xStart = Integer.parseInt(components[0]);
-            this.yStart = Integer.parseInt(components[1]);
-            this.xEnd = Integer.parseInt(components[2]);
-            this.yEnd = Integer.parseInt(components[3]);
-            this.playerId = Integer.parseInt(components[4]);
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Integer.parseInt(components[i]);
+            }
         } catch (NumberFormatException e) {
             throw new IllegalArgumentException("Received an uninterpretable string format for a TablutMove.");
         }
+        return values;
+    }
+
+    private static boolean onBoard(int x, int y) {
+        return x >= 0 && x < TablutBoardState.BOARD_SIZE && y >= 0 && y < TablutBoardState.BOARD_SIZE;
     }
 
     /* Useful Getters */
@@ -50,6 +122,40 @@ public class TablutMove extends Move {
         return Coordinates.get(this.xEnd, this.yEnd);
     }
 
+    /**
+     * Returns the move packed in an int: the start square in the lowest 7 bits,
+     * then the end square and then the player, with squares numbered as in
+     * Bitboards. The move must be on the board.
+     */
+    public int toPacked() {
+        return pack(Coordinates.square(xStart, yStart), Coordinates.square(xEnd, yEnd), playerId);
+    }
+
+    public static TablutMove fromPacked(int move) {
+        if (move >= 0 && move < NUM_PACKED_IDS && sharedMoves[move] != null)
+            return sharedMoves[move];
+        int start = packedStart(move);
+        int end = packedEnd(move);
+        return new TablutMove(Coordinates.squareX(start), Coordinates.squareY(start), Coordinates.squareX(end),
+                Coordinates.squareY(end), packedPlayer(move));
+    }
+
+    public static int pack(int startSquare, int endSquare, int playerId) {
+        return startSquare | (endSquare << 7) | (playerId << 14);
+    }
+
+    public static int packedStart(int move) {
+        return move & 0x7F;
+    }
+
+    public static int packedEnd(int move) {
+        return (move >>> 7) & 0x7F;
+    }
+
+    public static int packedPlayer(int move) {
+        return move >>> 14;
+    }
+
     public static String getPlayerName(int player) {
         if (player != TablutBoardState.MUSCOVITE && player != TablutBoardState.SWEDE)
             return "Illegal";
@@ -66,13 +172,36 @@ public class TablutMove extends Move {
         return this.playerId;
     }
 
+    /**
+     * Sets the player of a move made with a constructor. Shared moves only accept
+     * the player they already have and throw UnsupportedOperationException
+     * otherwise; use withPlayerID for them.
+     */
     @Override
     public void setPlayerID(int player_id) {
+        if (shared && player_id != this.playerId)
+            throw new UnsupportedOperationException("Shared moves cannot change player: " + toPrettyString());
         this.playerId = player_id;
     }
 
+    // Returns the shared move for the given player if this one is shared, or sets
+    // the player on this move and returns it otherwise.
+    @Override
+    public TablutMove withPlayerID(int player_id) {
+        if (shared)
+            return get(xStart, yStart, xEnd, yEnd, player_id);
+        this.playerId = player_id;
+        return this;
+    }
+
+    /**
+     * Sets whether a move made with a constructor comes from the board. Shared
+     * moves never do, so they throw UnsupportedOperationException if asked to.
+     */
     @Override
     public void setFromBoard(boolean from_board) {
+        if (shared && from_board != this.fromBoard)
+            throw new UnsupportedOperationException("Shared moves cannot come from the board: " + toPrettyString());
         this.fromBoard = from_board;
     }
 
@@ -91,4 +220,18 @@ public class TablutMove extends Move {
     public String toTransportable() {
         return String.format("%d %d %d %d %d", xStart, yStart, xEnd, yEnd, playerId);
     }
+
+    /**
+     * Parses each argument as a move in the format of toTransportable and prints
+     * it. Run in a JVM of its own (see the check-moves target of build.xml), it
+     * checks that moves can be parsed and packed before any board state exists.
+     */
+    public static void main(String[] args) {
+        for (String arg : args) {
+            TablutMove move = parse(arg);
+            if (!move.toTransportable().equals(arg.trim()) || fromPacked(move.toPacked()) != move)
+                throw new IllegalStateException("The move did not survive parsing and packing: " + arg);
+            System.out.println(move.toPrettyString());
+        }
+    }
 }
@@ -0,0 +1,167 @@
+package tablut;
+
+import boardgame.Board;
+import coordinates.Coordinates;
+import tablut.TablutBoardState.Piece;
+
+/**
+ * An immutable snapshot of a TablutBoardState, packed into three longs and an
+ * int.
+ *
+ * The two low words hold the muscovite and swede masks of rows 0 to 6 (see
+ * Bitboards). The third long holds the muscovite and swede masks of rows 7 and
+ * 8 (18 bits each) followed by the king square plus one (7 bits). The metadata
+ * int holds the turn player (1 bit), the turn number (16 bits) and the winner
+ * (3 bits).
+ *
+ * Positions are cheap to store in bulk (opening books, transposition tables,
+ * game records) and compare in constant time. Use TablutBoardState.getPosition
+ * to take a snapshot and new TablutBoardState(position) to get a playable state
+ * back; the history of earlier positions is not part of the snapshot.
+ */
+public final class TablutPosition {
+    private static final int HI_BITS = Bitboards.SQUARES - Bitboards.LO_SQUARES;
+    private static final long HI_WORD_MASK = (1L << HI_BITS) - 1;
+    private static final int KING_SHIFT = 2 * HI_BITS;
+    private static final int TURN_NUMBER_SHIFT = 1;
+    private static final int WINNER_SHIFT = 17;
+
+    private final long muscovitesLo;
+    private final long swedesLo;
+    private final long high;
+    private final int metadata;
+
+    TablutPosition(long muscovitesLo, long muscovitesHi, long swedesLo, long swedesHi, int kingSquare,
+            int turnPlayer, int turnNumber, int winner) {
+        this.muscovitesLo = muscovitesLo;
+        this.swedesLo = swedesLo;
+        this.high = muscovitesHi | (swedesHi << HI_BITS) | ((long) (kingSquare + 1) << KING_SHIFT);
+        this.metadata = turnPlayer | ((turnNumber & 0xFFFF) << TURN_NUMBER_SHIFT)
+                | (TablutBoardState.encodeWinner(winner) << WINNER_SHIFT);
+    }
+
+    /* Getters for the packed fields. */
+    public long getMuscovitesLo() {
+        return muscovitesLo;
+    }
+
+    public long getMuscovitesHi() {
+        return high & HI_WORD_MASK;
+    }
+
+    public long getSwedesLo() {
+        return swedesLo;
+    }
+
+    public long getSwedesHi() {
+        return (high >>> HI_BITS) & HI_WORD_MASK;
+    }
+
+    // The square of the king, or -1 if it has been captured.
+    public int getKingSquare() {
+        return (int) (high >>> KING_SHIFT) - 1;
+    }
+
+    public int getTurnPlayer() {
+        return metadata & 1;
+    }
+
+    public int getTurnNumber() {
+        return (metadata >>> TURN_NUMBER_SHIFT) & 0xFFFF;
+    }
+
+    public int getWinner() {
+        return TablutBoardState.decodeWinner(metadata >>> WINNER_SHIFT);
+    }
+
+    public Piece getPieceAt(int square) {
+        if (square == getKingSquare())
+            return Piece.KING;
+        if (Bitboards.isSet(getSwedesLo(), getSwedesHi(), square))
+            return Piece.WHITE;
+        if (Bitboards.isSet(getMuscovitesLo(), getMuscovitesHi(), square))
+            return Piece.BLACK;
+        return Piece.EMPTY;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof TablutPosition))
+            return false;
+        TablutPosition p = (TablutPosition) o;
+        return muscovitesLo == p.muscovitesLo && swedesLo == p.swedesLo && high == p.high && metadata == p.metadata;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = muscovitesLo * 0x9E3779B97F4A7C15L;
+        h = (h ^ swedesLo) * 0x9E3779B97F4A7C15L;
+        h = (h ^ high) * 0x9E3779B97F4A7C15L;
+        h ^= metadata;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Reads a position in the format of toString: the 9 rows separated by '/',
+     * with 'B' for muscovites, 'W' for swedes, 'K' for the king and '.' for empty
+     * squares, then the turn player and optionally the turn number, e.g.
+     * "...BBB.../....B..../... p0 t0". The game is taken to be undecided.
+     */
+    public static TablutPosition parse(String text) throws IllegalArgumentException {
+        String[] parts = text.trim().split("\\s+");
+        String[] rows = parts[0].split("/");
+        if (rows.length != Bitboards.SIZE || parts.length < 2 || !parts[1].matches("p[01]")
+                || (parts.length > 2 && !parts[2].matches("t\\d+"))) {
+            throw new IllegalArgumentException("Received an uninterpretable position: " + text);
+        }
+        long muscovitesLo = 0, muscovitesHi = 0, swedesLo = 0, swedesHi = 0;
+        int kingSquare = -1;
+        Coordinates.setAllCoordinates(Bitboards.SIZE);
+        for (int x = 0; x < Bitboards.SIZE; x++) {
+            if (rows[x].length() != Bitboards.SIZE) {
+                throw new IllegalArgumentException(
+                        "Row " + x + " should have " + Bitboards.SIZE + " squares: " + text);
+            }
+            for (int y = 0; y < Bitboards.SIZE; y++) {
+                int square = Coordinates.square(x, y);
+                switch (rows[x].charAt(y)) {
+                case 'B':
+                    muscovitesLo |= Bitboards.loBit(square);
+                    muscovitesHi |= Bitboards.hiBit(square);
+                    break;
+                case 'K':
+                    kingSquare = square; // the king is a swede piece too
+                    swedesLo |= Bitboards.loBit(square);
+                    swedesHi |= Bitboards.hiBit(square);
+                    break;
+                case 'W':
+                    swedesLo |= Bitboards.loBit(square);
+                    swedesHi |= Bitboards.hiBit(square);
+                    break;
+                case '.':
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown piece '" + rows[x].charAt(y) + "': " + text);
+                }
+            }
+        }
+        int turnPlayer = Integer.parseInt(parts[1].substring(1));
+        int turnNumber = (parts.length > 2) ? Integer.parseInt(parts[2].substring(1)) : 0;
+        return new TablutPosition(muscovitesLo, muscovitesHi, swedesLo, swedesHi, kingSquare, turnPlayer, turnNumber,
+                Board.NOBODY);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int square = 0; square < Bitboards.SQUARES; square++) {
+            if (square > 0 && Coordinates.squareY(square) == 0)
+                sb.append('/');
+            Piece piece = getPieceAt(square);
+            sb.append(piece == Piece.BLACK ? 'B' : piece == Piece.WHITE ? 'W' : piece == Piece.KING ? 'K' : '.');
+        }
+        return String.format("%s p%d t%d", sb, getTurnPlayer(), getTurnNumber());
+    }
+}
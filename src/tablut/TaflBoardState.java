@@ -0,0 +1,461 @@
+package tablut;
+
+import java.util.Arrays;
+
+import boardgame.Board;
+import tablut.TablutBoardState.Piece;
+
+/**
+ * The rules of tablut on a board of any size TaflGeometry supports, for the
+ * larger tafl variants (11x11, 13x13) and the small 7x7 one.
+ *
+ * The rules are those of TablutBoardState: the king wins on a corner, pieces
+ * are captured by a sandwich against an enemy piece, a corner or the center,
+ * the king on or next to the center has to be surrounded on all four sides, and
+ * the game is drawn after MAX_TURNS. The state is stored the same way too, as
+ * occupancy masks, only spread over as many longs as the board needs (see
+ * TaflGeometry), so the larger boards get the same lookup-based move generation
+ * rather than walking coordinates.
+ *
+ * TablutBoardState stays the engine for the 9x9 game itself: its two-long
+ * masks are a little faster, and the server, the players and TablutMove are all
+ * built around it. Moves here are packed ints (see pack), since TablutMove only
+ * knows the 9x9 board, and are played with applyMove and undoMove.
+ */
+public class TaflBoardState implements Cloneable {
+    public static final int MUSCOVITE = TablutBoardState.MUSCOVITE;
+    public static final int SWEDE = TablutBoardState.SWEDE;
+    public static final int MAX_TURNS = TablutBoardState.MAX_TURNS;
+    private static final int FIRST_PLAYER = MUSCOVITE;
+
+    /*
+     * Packed moves hold the start and end squares (8 bits each, enough for a 13x13
+     * board) and the player.
+     */
+    private static final int MOVE_SQUARE_BITS = 8;
+    private static final int MOVE_SQUARE_MASK = (1 << MOVE_SQUARE_BITS) - 1;
+
+    /* Layout of the undo records returned by applyMove. */
+    private static final long UNDO_SQUARE_MASK = 0xFF;
+    private static final int UNDO_TO_SHIFT = 8;
+    private static final int UNDO_CAPTURES_SHIFT = 16;
+    private static final int UNDO_KING_SHIFT = 20;
+    private static final int UNDO_WINNER_SHIFT = 28;
+    private static final int UNDO_PLAYER_SHIFT = 31;
+    private static final int UNDO_TURN_SHIFT = 32;
+
+    private final TaflGeometry geometry;
+    private final long[] muscovites;
+    private final long[] swedes; // the swede masks include the king
+    private final long[] occupiedTransposed; // every piece, stored at its transposed square
+    private int kingSquare; // -1 once the king has been captured
+    private int turnPlayer;
+    private int turnNumber;
+    private int winner = Board.NOBODY;
+
+    // The starting position on a board of the given size.
+    public TaflBoardState(int size) throws IllegalArgumentException {
+        this(TaflGeometry.of(size));
+        setPosition(geometry.startPosition());
+    }
+
+    private TaflBoardState(TaflGeometry geometry) {
+        this.geometry = geometry;
+        muscovites = new long[geometry.words];
+        swedes = new long[geometry.words];
+        occupiedTransposed = new long[geometry.words];
+        kingSquare = -1;
+    }
+
+    /* The below method is for the purpose of cloning. */
+    private TaflBoardState(TaflBoardState boardState) {
+        geometry = boardState.geometry;
+        muscovites = boardState.muscovites.clone();
+        swedes = boardState.swedes.clone();
+        occupiedTransposed = boardState.occupiedTransposed.clone();
+        kingSquare = boardState.kingSquare;
+        turnPlayer = boardState.turnPlayer;
+        turnNumber = boardState.turnNumber;
+        winner = boardState.winner;
+    }
+
+    @Override
+    public Object clone() {
+        return new TaflBoardState(this);
+    }
+
+    /**
+     * Reads a position in the format of TablutPosition: the rows separated by '/',
+     * with 'B' for muscovites, 'W' for swedes, 'K' for the king and '.' for empty
+     * squares, then the turn player and optionally the turn number. The number of
+     * rows gives the size of the board. The game is taken to be undecided.
+     */
+    public static TaflBoardState parse(String text) throws IllegalArgumentException {
+        String[] rows = text.trim().split("\\s+")[0].split("/");
+        TaflBoardState state = new TaflBoardState(TaflGeometry.of(rows.length));
+        state.setPosition(text);
+        return state;
+    }
+
+    private void setPosition(String text) throws IllegalArgumentException {
+        String[] parts = text.trim().split("\\s+");
+        String[] rows = parts[0].split("/");
+        int size = geometry.size;
+        if (rows.length != size || parts.length < 2 || !parts[1].matches("p[01]")
+                || (parts.length > 2 && !parts[2].matches("t\\d+"))) {
+            throw new IllegalArgumentException("Received an uninterpretable position: " + text);
+        }
+        for (int x = 0; x < size; x++) {
+            if (rows[x].length() != size)
+                throw new IllegalArgumentException("Row " + x + " should have " + size + " squares: " + text);
+            for (int y = 0; y < size; y++) {
+                int square = x * size + y;
+                switch (rows[x].charAt(y)) {
+                case 'B':
+                    togglePiece(MUSCOVITE, square);
+                    break;
+                case 'K':
+                    kingSquare = square; // the king is a swede piece too
+                    togglePiece(SWEDE, square);
+                    break;
+                case 'W':
+                    togglePiece(SWEDE, square);
+                    break;
+                case '.':
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown piece '" + rows[x].charAt(y) + "': " + text);
+                }
+            }
+        }
+        turnPlayer = Integer.parseInt(parts[1].substring(1));
+        turnNumber = (parts.length > 2) ? Integer.parseInt(parts[2].substring(1)) : 0;
+    }
+
+    public TaflGeometry getGeometry() {
+        return geometry;
+    }
+
+    public int getSize() {
+        return geometry.size;
+    }
+
+    /* Packed moves. */
+    public static int pack(int startSquare, int endSquare, int playerId) {
+        return startSquare | (endSquare << MOVE_SQUARE_BITS) | (playerId << (2 * MOVE_SQUARE_BITS));
+    }
+
+    public static int packedStart(int move) {
+        return move & MOVE_SQUARE_MASK;
+    }
+
+    public static int packedEnd(int move) {
+        return (move >>> MOVE_SQUARE_BITS) & MOVE_SQUARE_MASK;
+    }
+
+    public static int packedPlayer(int move) {
+        return move >>> (2 * MOVE_SQUARE_BITS);
+    }
+
+    // A packed move in the format of TablutMove.toTransportable.
+    public String toTransportable(int move) {
+        int size = geometry.size;
+        int from = packedStart(move);
+        int to = packedEnd(move);
+        return String.format("%d %d %d %d %d", from / size, from % size, to / size, to % size, packedPlayer(move));
+    }
+
+    /**
+     * Plays a move in place and returns an undo record for undoMove, as
+     * TablutBoardState.applyMove does. The move is not checked for legality.
+     */
+    public long applyMove(int move) {
+        return makeMove(packedStart(move), packedEnd(move));
+    }
+
+    // Plays a move after checking that it is legal.
+    public void processMove(int move) throws IllegalArgumentException {
+        if (!isLegal(move))
+            throw new IllegalArgumentException("Invalid move for current context. Move: " + move);
+        applyMove(move);
+    }
+
+    public void undoMove(long undo) {
+        int from = (int) (undo & UNDO_SQUARE_MASK);
+        int to = (int) ((undo >>> UNDO_TO_SHIFT) & UNDO_SQUARE_MASK);
+        int captures = (int) ((undo >>> UNDO_CAPTURES_SHIFT) & 0xF);
+        int mover = (int) ((undo >>> UNDO_PLAYER_SHIFT) & 1);
+
+        togglePiece(mover, to);
+        togglePiece(mover, from);
+        for (int d = 0; d < TaflGeometry.NUM_DIRECTIONS; d++) {
+            if ((captures & (1 << d)) != 0)
+                togglePiece(1 - mover, geometry.neighbors[to][d]);
+        }
+        kingSquare = (int) ((undo >>> UNDO_KING_SHIFT) & UNDO_SQUARE_MASK) - 1;
+        winner = TablutBoardState.decodeWinner((int) ((undo >>> UNDO_WINNER_SHIFT) & 0x7));
+        turnPlayer = mover;
+        turnNumber = (int) ((undo >>> UNDO_TURN_SHIFT) & 0xFFFF);
+    }
+
+    // See TablutBoardState.makeMove; the record is laid out by the UNDO_* constants.
+    private long makeMove(int from, int to) {
+        long undo = from | ((long) to << UNDO_TO_SHIFT) | ((long) (kingSquare + 1) << UNDO_KING_SHIFT)
+                | ((long) TablutBoardState.encodeWinner(winner) << UNDO_WINNER_SHIFT)
+                | ((long) turnPlayer << UNDO_PLAYER_SHIFT) | ((long) (turnNumber & 0xFFFF) << UNDO_TURN_SHIFT);
+
+        int captures = captureDirections(from, to);
+        undo |= (long) captures << UNDO_CAPTURES_SHIFT;
+
+        togglePiece(turnPlayer, from);
+        togglePiece(turnPlayer, to);
+        if (from == kingSquare)
+            kingSquare = to;
+
+        int opponent = getOpponent();
+        for (int d = 0; d < TaflGeometry.NUM_DIRECTIONS; d++) {
+            if ((captures & (1 << d)) == 0)
+                continue;
+            int enemy = geometry.neighbors[to][d];
+            if (enemy == kingSquare)
+                kingSquare = -1; // the king has been captured!
+            togglePiece(opponent, enemy);
+        }
+
+        if (turnPlayer != FIRST_PLAYER)
+            turnNumber += 1;
+        turnPlayer = opponent;
+        updateWinner();
+        return undo;
+    }
+
+    // Which neighbors of "to" moving the piece on "from" there would capture (see
+    // TablutBoardState.captureDirections).
+    int captureDirections(int from, int to) {
+        int captures = 0;
+        int opponent = getOpponent();
+        for (int d = 0; d < TaflGeometry.NUM_DIRECTIONS; d++) {
+            int enemy = geometry.neighbors[to][d];
+            if (enemy < 0 || !isPlayerPieceAt(opponent, enemy))
+                continue;
+
+            boolean canCapture;
+            // The king at the center or next to it can only be captured on all 4 sides.
+            if (enemy == kingSquare && geometry.nearCenter[enemy]) {
+                canCapture = true;
+                for (int a = 0; a < TaflGeometry.NUM_DIRECTIONS; a++) {
+                    int ally = geometry.neighbors[enemy][a];
+                    boolean muscoviteAtAlly = ally == to || (ally != from && isPlayerPieceAt(MUSCOVITE, ally));
+                    if (!muscoviteAtAlly && ally != geometry.center) {
+                        canCapture = false;
+                        break;
+                    }
+                }
+            } else { // Otherwise, check for the normal, sandwich-based capture rule.
+                int sandwich = geometry.neighbors[enemy][d];
+                canCapture = sandwich >= 0 && (geometry.restricted[sandwich]
+                        || (sandwich != from && isPlayerPieceAt(turnPlayer, sandwich)));
+            }
+            if (canCapture)
+                captures |= 1 << d;
+        }
+        return captures;
+    }
+
+    // Follows TablutBoardState.updateWinner.
+    private void updateWinner() {
+        if (kingSquare < 0 || !playerHasALegalMove(SWEDE)) {
+            winner = MUSCOVITE;
+        } else if (geometry.corners[kingSquare] || !playerHasALegalMove(MUSCOVITE)) {
+            winner = SWEDE;
+        } else if (gameOver()) {
+            winner = Board.DRAW;
+        }
+    }
+
+    private boolean playerHasALegalMove(int player) {
+        long[] pieces = (player == MUSCOVITE) ? muscovites : swedes;
+        for (int w = 0; w < geometry.words; w++) {
+            for (long word = pieces[w]; word != 0; word &= word - 1) {
+                if (pieceMoves(geometry.wordBase(w) + Long.numberOfTrailingZeros(word), true) != 0)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes all legal moves for the turn player into the buffer as packed ints
+     * and returns how many there are. The buffer needs room for
+     * TaflGeometry.getMaxLegalMoves moves.
+     */
+    public int getAllLegalMoves(int[] moves) {
+        int count = 0;
+        long[] pieces = (turnPlayer == MUSCOVITE) ? muscovites : swedes;
+        for (int w = 0; w < geometry.words; w++) {
+            for (long word = pieces[w]; word != 0; word &= word - 1)
+                count = addLegalMovesFrom(geometry.wordBase(w) + Long.numberOfTrailingZeros(word), moves, count);
+        }
+        return count;
+    }
+
+    // The legal moves of the turn player's piece on the given square.
+    public int getLegalMovesForPosition(int square, int[] moves) {
+        if (!isPlayerPieceAt(turnPlayer, square))
+            return 0;
+        return addLegalMovesFrom(square, moves, 0);
+    }
+
+    // Same order as TablutBoardState: -x, -y, +x, +y, nearest squares first.
+    private int addLegalMovesFrom(int square, int[] moves, int count) {
+        int size = geometry.size;
+        int x = square / size;
+        int y = square % size;
+        int alongColumn = (int) (pieceMoves(square, false) >>> 32);
+        int alongRow = (int) pieceMoves(square, false);
+        for (int m = alongColumn & ((1 << x) - 1); m != 0; m ^= Integer.highestOneBit(m))
+            moves[count++] = pack(square, (31 - Integer.numberOfLeadingZeros(m)) * size + y, turnPlayer);
+        for (int m = alongRow & ((1 << y) - 1); m != 0; m ^= Integer.highestOneBit(m))
+            moves[count++] = pack(square, x * size + 31 - Integer.numberOfLeadingZeros(m), turnPlayer);
+        for (int m = alongColumn >>> (x + 1) << (x + 1); m != 0; m &= m - 1)
+            moves[count++] = pack(square, Integer.numberOfTrailingZeros(m) * size + y, turnPlayer);
+        for (int m = alongRow >>> (y + 1) << (y + 1); m != 0; m &= m - 1)
+            moves[count++] = pack(square, x * size + Integer.numberOfTrailingZeros(m), turnPlayer);
+        return count;
+    }
+
+    /*
+     * The positions the piece on the square can move to, along its column in the
+     * high 32 bits and along its row in the low 32 bits. Only non-zero-ness is
+     * computed exactly if "any" is set, which lets the stalemate check stop early.
+     */
+    private long pieceMoves(int square, boolean any) {
+        int size = geometry.size;
+        int x = square / size;
+        int y = square % size;
+        int alongRow = geometry.slide(y, rowOccupancy(x));
+        if (square != kingSquare) // only the king may stop on a corner or the center
+            alongRow &= ~geometry.restrictedLines[x];
+        if (any && alongRow != 0)
+            return alongRow;
+        int alongColumn = geometry.slide(x, geometry.line(occupiedTransposed, y));
+        if (square != kingSquare)
+            alongColumn &= ~geometry.restrictedLines[y];
+        return ((long) alongColumn << 32) | alongRow;
+    }
+
+    // The occupancy of row x.
+    private int rowOccupancy(int x) {
+        int w = x / geometry.rowsPerWord;
+        return (int) ((muscovites[w] | swedes[w]) >>> ((x % geometry.rowsPerWord) * geometry.size)) & geometry.lineMask;
+    }
+
+    public boolean isLegal(int move) {
+        int from = packedStart(move);
+        int to = packedEnd(move);
+        if (packedPlayer(move) != turnPlayer || from >= geometry.squares || to >= geometry.squares)
+            return false;
+        if (!isPlayerPieceAt(turnPlayer, from) || !squareIsEmpty(to))
+            return false;
+        int size = geometry.size;
+        if (from / size == to / size)
+            return ((int) pieceMoves(from, false) & (1 << (to % size))) != 0;
+        if (from % size == to % size)
+            return ((int) (pieceMoves(from, false) >>> 32) & (1 << (to / size))) != 0;
+        return false;
+    }
+
+    public Piece getPieceAt(int x, int y) {
+        int square = x * geometry.size + y;
+        if (square == kingSquare)
+            return Piece.KING;
+        if (isPlayerPieceAt(SWEDE, square))
+            return Piece.WHITE;
+        if (isPlayerPieceAt(MUSCOVITE, square))
+            return Piece.BLACK;
+        return Piece.EMPTY;
+    }
+
+    public int getNumberPlayerPieces(int player) {
+        long[] pieces = (player == MUSCOVITE) ? muscovites : swedes;
+        int count = 0;
+        for (long word : pieces)
+            count += Long.bitCount(word);
+        return count;
+    }
+
+    public int getKingSquare() {
+        return kingSquare;
+    }
+
+    public int getTurnPlayer() {
+        return turnPlayer;
+    }
+
+    public int getOpponent() {
+        return (turnPlayer == SWEDE) ? MUSCOVITE : SWEDE;
+    }
+
+    public int getTurnNumber() {
+        return turnNumber;
+    }
+
+    public int getWinner() {
+        return winner;
+    }
+
+    public void setWinner(int win) {
+        winner = win;
+    }
+
+    public boolean gameOver() {
+        return (turnNumber > MAX_TURNS) || (winner != Board.NOBODY);
+    }
+
+    private boolean isPlayerPieceAt(int player, int square) {
+        long[] pieces = (player == MUSCOVITE) ? muscovites : swedes;
+        return (pieces[geometry.wordOf[square]] & geometry.bitOf[square]) != 0;
+    }
+
+    private boolean squareIsEmpty(int square) {
+        int w = geometry.wordOf[square];
+        return ((muscovites[w] | swedes[w]) & geometry.bitOf[square]) == 0;
+    }
+
+    private void togglePiece(int player, int square) {
+        long[] pieces = (player == MUSCOVITE) ? muscovites : swedes;
+        pieces[geometry.wordOf[square]] ^= geometry.bitOf[square];
+        int transposed = geometry.transposed[square];
+        occupiedTransposed[geometry.wordOf[transposed]] ^= geometry.bitOf[transposed];
+    }
+
+    // The position in the format of parse.
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int x = 0; x < geometry.size; x++) {
+            if (x > 0)
+                sb.append('/');
+            for (int y = 0; y < geometry.size; y++) {
+                Piece piece = getPieceAt(x, y);
+                sb.append(piece == Piece.BLACK ? 'B' : piece == Piece.WHITE ? 'W' : piece == Piece.KING ? 'K' : '.');
+            }
+        }
+        return String.format("%s p%d t%d", sb, turnPlayer, turnNumber);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof TaflBoardState))
+            return false;
+        TaflBoardState s = (TaflBoardState) o;
+        return geometry == s.geometry && Arrays.equals(muscovites, s.muscovites) && Arrays.equals(swedes, s.swedes)
+                && kingSquare == s.kingSquare && turnPlayer == s.turnPlayer && turnNumber == s.turnNumber
+                && winner == s.winner;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(muscovites) * 31 + Arrays.hashCode(swedes) + kingSquare;
+    }
+}
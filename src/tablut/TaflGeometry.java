@@ -0,0 +1,175 @@
+package tablut;
+
+import java.util.Arrays;
+
+/**
+ * Square numbering, occupancy masks and lookup tables for a tafl board of any
+ * odd size from MIN_SIZE to MAX_SIZE, as used by TaflBoardState.
+ *
+ * Squares are numbered x * size + y, as on the tablut board. A mask is an array
+ * of longs, each holding as many whole rows as fit in 64 bits: 7 rows of 9 for
+ * tablut (the same split as Bitboards), 5 rows of 11 or 4 rows of 13 for the
+ * larger boards. As no row straddles two words, the occupancy of a row is a
+ * single shift and mask, and sliding moves are looked up in the same kind of
+ * table as Bitboards.slide. Columns are read from a transposed mask.
+ *
+ * There is one geometry per size, built on first use and shared by every state
+ * of that size. Geometries never change once built.
+ */
+public final class TaflGeometry {
+    public static final int MIN_SIZE = 7;
+    public static final int MAX_SIZE = 13;
+    public static final int NUM_DIRECTIONS = 4; // -x, -y, +x, +y, as in Coordinates
+
+    private static final int[] DX = { -1, 0, 1, 0 };
+    private static final int[] DY = { 0, -1, 0, 1 };
+    private static final TaflGeometry[] geometries = new TaflGeometry[MAX_SIZE + 1];
+
+    final int size;
+    final int squares;
+    final int rowsPerWord;
+    final int words;
+    final int lineMask;
+    final int center;
+    final int maxLegalMoves;
+
+    final int[] wordOf; // the word of a mask that holds the square
+    final long[] bitOf; // the bit of the square within that word
+    final int[] transposed;
+    final int[][] neighbors; // -1 when off the board
+    final boolean[] corners;
+    final boolean[] restricted; // the corners and the center
+    final boolean[] nearCenter; // the center and its neighbors
+    final int[] restrictedLines; // per row (or column, by symmetry), the restricted positions along it
+    final int[] cornerDistances;
+    private final int[][] slides;
+
+    public static synchronized TaflGeometry of(int size) throws IllegalArgumentException {
+        if (size < MIN_SIZE || size > MAX_SIZE || size % 2 == 0) {
+            throw new IllegalArgumentException(
+                    "Board size must be odd and between " + MIN_SIZE + " and " + MAX_SIZE + ": " + size);
+        }
+        if (geometries[size] == null)
+            geometries[size] = new TaflGeometry(size);
+        return geometries[size];
+    }
+
+    private TaflGeometry(int size) {
+        this.size = size;
+        this.squares = size * size;
+        this.rowsPerWord = 64 / size;
+        this.words = (size + rowsPerWord - 1) / rowsPerWord;
+        this.lineMask = (1 << size) - 1;
+        int middle = size / 2;
+        this.center = middle * size + middle;
+
+        wordOf = new int[squares];
+        bitOf = new long[squares];
+        transposed = new int[squares];
+        neighbors = new int[squares][NUM_DIRECTIONS];
+        corners = new boolean[squares];
+        restricted = new boolean[squares];
+        nearCenter = new boolean[squares];
+        cornerDistances = new int[squares];
+        restrictedLines = new int[size];
+        int last = size - 1;
+        for (int square = 0; square < squares; square++) {
+            int x = square / size;
+            int y = square % size;
+            wordOf[square] = x / rowsPerWord;
+            bitOf[square] = 1L << ((x % rowsPerWord) * size + y);
+            transposed[square] = y * size + x;
+            for (int d = 0; d < NUM_DIRECTIONS; d++) {
+                int nx = x + DX[d];
+                int ny = y + DY[d];
+                neighbors[square][d] = (nx >= 0 && nx < size && ny >= 0 && ny < size) ? nx * size + ny : -1;
+            }
+            corners[square] = (x == 0 || x == last) && (y == 0 || y == last);
+            restricted[square] = corners[square] || square == center;
+            nearCenter[square] = (x == middle || y == middle) && Math.abs(x - y) <= 1;
+            cornerDistances[square] = Math.min(x, last - x) + Math.min(y, last - y);
+            if (restricted[square])
+                restrictedLines[x] |= 1 << y;
+        }
+
+        slides = new int[size][1 << size];
+        for (int position = 0; position < size; position++) {
+            for (int occupancy = 0; occupancy <= lineMask; occupancy++) {
+                int reachable = 0;
+                for (int i = position - 1; i >= 0 && (occupancy & (1 << i)) == 0; i--)
+                    reachable |= 1 << i;
+                for (int i = position + 1; i < size && (occupancy & (1 << i)) == 0; i++)
+                    reachable |= 1 << i;
+                slides[position][occupancy] = reachable;
+            }
+        }
+
+        // Any empty square can be reached from at most one piece per direction.
+        maxLegalMoves = NUM_DIRECTIONS * squares;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getSquares() {
+        return squares;
+    }
+
+    // A size for move buffers that no position on this board can overflow.
+    public int getMaxLegalMoves() {
+        return maxLegalMoves;
+    }
+
+    // The positions a piece at the given position can slide to along a line with
+    // the given occupancy (see Bitboards.slide).
+    int slide(int position, int occupancy) {
+        return slides[position][occupancy];
+    }
+
+    // The occupancy of line x of a mask laid out by this geometry.
+    int line(long[] mask, int x) {
+        return (int) (mask[x / rowsPerWord] >>> ((x % rowsPerWord) * size)) & lineMask;
+    }
+
+    // The first square held in the given word.
+    int wordBase(int word) {
+        return word * rowsPerWord * size;
+    }
+
+    /**
+     * The starting position on this board, in the format of TaflBoardState.parse.
+     * Tablut (9x9) has the usual 16 muscovites and 8 swedes. The larger boards
+     * use the hnefatafl layout of 24 attackers, each edge holding a block of five,
+     * against a diamond of 12 defenders, and 7x7 is brandubh.
+     */
+    public String startPosition() {
+        char[][] board = new char[size][size];
+        for (char[] row : board)
+            Arrays.fill(row, '.');
+        int middle = size / 2;
+        int edgeHalf = (size == 7) ? 0 : (size == 9) ? 1 : 2;
+        int arm = (size == 7) ? 1 : 2;
+        for (int i = middle - edgeHalf; i <= middle + edgeHalf; i++) {
+            board[0][i] = board[size - 1][i] = board[i][0] = board[i][size - 1] = 'B';
+        }
+        board[1][middle] = board[size - 2][middle] = board[middle][1] = board[middle][size - 2] = 'B';
+        for (int i = 1; i <= arm; i++) {
+            board[middle - i][middle] = board[middle + i][middle] = 'W';
+            board[middle][middle - i] = board[middle][middle + i] = 'W';
+        }
+        if (size >= 11) {
+            board[middle - 1][middle - 1] = board[middle - 1][middle + 1] = 'W';
+            board[middle + 1][middle - 1] = board[middle + 1][middle + 1] = 'W';
+        }
+        board[middle][middle] = 'K';
+
+        StringBuilder sb = new StringBuilder();
+        for (int x = 0; x < size; x++) {
+            if (x > 0)
+                sb.append('/');
+            sb.append(board[x]);
+        }
+        return sb.append(" p0 t0").toString();
+    }
+}
@@ -0,0 +1,141 @@
+package tablut;
+
+import java.util.Arrays;
+
+import coordinates.Coordinates;
+
+/**
+ * The "hanging" pieces of both sides of a TablutBoardState: the pieces the
+ * other side could capture with its next move, whoever is to move. A piece
+ * hangs when one side of it is an enemy piece, a corner or the center and an
+ * enemy piece can slide onto the empty square on the other side; the king on
+ * or next to the center hangs when three sides are taken and a muscovite can
+ * reach the fourth.
+ *
+ * A state that tracks threats (see TablutBoardState.setThreatTracking) keeps
+ * one of these up to date as moves are made, and restores it from a stack when
+ * they are taken back. Whether a piece hangs only depends on its neighbors and
+ * on what can reach them along their rows and columns, so after a move only the
+ * pieces within one row or column of a square that changed are looked at again.
+ */
+final class ThreatMap {
+    // For each square, the three rows and three columns centered on it.
+    private static final long[] bandsLo = new long[Bitboards.SQUARES];
+    private static final long[] bandsHi = new long[Bitboards.SQUARES];
+    static {
+        for (int square = 0; square < Bitboards.SQUARES; square++) {
+            int x = Coordinates.squareX(square);
+            int y = Coordinates.squareY(square);
+            for (int other = 0; other < Bitboards.SQUARES; other++) {
+                if (Math.abs(Coordinates.squareX(other) - x) <= 1 || Math.abs(Coordinates.squareY(other) - y) <= 1) {
+                    bandsLo[square] |= Bitboards.loBit(other);
+                    bandsHi[square] |= Bitboards.hiBit(other);
+                }
+            }
+        }
+    }
+
+    private final long[] hangingLo = new long[2];
+    private final long[] hangingHi = new long[2];
+    private long[] history = new long[16]; // the maps before each tracked move, four longs per move
+    private int historySize = 0;
+
+    ThreatMap(TablutBoardState state) {
+        recompute(state);
+    }
+
+    ThreatMap(ThreatMap threats) {
+        System.arraycopy(threats.hangingLo, 0, hangingLo, 0, 2);
+        System.arraycopy(threats.hangingHi, 0, hangingHi, 0, 2);
+        history = Arrays.copyOf(threats.history, threats.history.length);
+        historySize = threats.historySize;
+    }
+
+    long getHangingLo(int player) {
+        return hangingLo[player];
+    }
+
+    long getHangingHi(int player) {
+        return hangingHi[player];
+    }
+
+    // Saves the maps before a move is made.
+    void push() {
+        if (historySize + 4 > history.length)
+            history = Arrays.copyOf(history, 2 * history.length);
+        history[historySize++] = hangingLo[0];
+        history[historySize++] = hangingHi[0];
+        history[historySize++] = hangingLo[1];
+        history[historySize++] = hangingHi[1];
+    }
+
+    // Restores the maps after a move is taken back. Returns false if the move was
+    // made before tracking started, in which case nothing was saved for it.
+    boolean pop() {
+        if (historySize == 0)
+            return false;
+        hangingHi[1] = history[--historySize];
+        hangingLo[1] = history[--historySize];
+        hangingHi[0] = history[--historySize];
+        hangingLo[0] = history[--historySize];
+        return true;
+    }
+
+    void recompute(TablutBoardState state) {
+        update(state, Bitboards.LO_MASK, Bitboards.HI_MASK);
+    }
+
+    // Brings the maps up to date after a move that changed the given squares.
+    void moved(TablutBoardState state, long changedLo, long changedHi) {
+        long dirtyLo = 0, dirtyHi = 0;
+        for (int w = 0; w < 2; w++) {
+            long changed = (w == 0) ? changedLo : changedHi;
+            int base = (w == 0) ? 0 : Bitboards.LO_SQUARES;
+            for (; changed != 0; changed &= changed - 1) {
+                int square = base + Long.numberOfTrailingZeros(changed);
+                dirtyLo |= bandsLo[square];
+                dirtyHi |= bandsHi[square];
+            }
+        }
+        update(state, dirtyLo, dirtyHi);
+    }
+
+    // Looks again at the pieces on the given squares; pieces that are gone are dropped.
+    private void update(TablutBoardState state, long dirtyLo, long dirtyHi) {
+        for (int player = 0; player < 2; player++) {
+            long piecesLo = state.getPlayerLo(player);
+            long piecesHi = state.getPlayerHi(player);
+            long lo = hangingLo[player] & piecesLo & ~dirtyLo;
+            long hi = hangingHi[player] & piecesHi & ~dirtyHi;
+            lo |= hanging(state, player, piecesLo & dirtyLo, 0);
+            hi |= hanging(state, player, piecesHi & dirtyHi, Bitboards.LO_SQUARES);
+            hangingLo[player] = lo;
+            hangingHi[player] = hi;
+        }
+    }
+
+    /*
+     * The pieces of the player in one word of a mask (the word starting at square
+     * "base") that hang, as a mask of the same word.
+     */
+    static long hanging(TablutBoardState state, int player, long pieces, int base) {
+        long hanging = 0;
+        for (; pieces != 0; pieces &= pieces - 1) {
+            int square = base + Long.numberOfTrailingZeros(pieces);
+            if (isHanging(state, player, square))
+                hanging |= pieces & -pieces;
+        }
+        return hanging;
+    }
+
+    // Whether the piece of the player on the given square hangs (see above).
+    static boolean isHanging(TablutBoardState state, int player, int square) {
+        int opponent = 1 - player;
+        long emptyLo = ~(state.getPlayerLo(TablutBoardState.MUSCOVITE) | state.getPlayerLo(TablutBoardState.SWEDE))
+                & Bitboards.LO_MASK;
+        long emptyHi = ~(state.getPlayerHi(TablutBoardState.MUSCOVITE) | state.getPlayerHi(TablutBoardState.SWEDE))
+                & Bitboards.HI_MASK;
+        return TablutBoardState.isCapturable(square, state.getKingSquare(), state.getPlayerLo(opponent),
+                state.getPlayerHi(opponent), emptyLo, emptyHi);
+    }
+}
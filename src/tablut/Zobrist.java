@@ -0,0 +1,41 @@
+package tablut;
+
+import java.util.Random;
+
+/**
+ * Random keys used to hash tablut positions (see TablutBoardState.getHashKey).
+ *
+ * A position key is the xor of the key of every piece on its square, the king
+ * key of the king square and, when the swedes are to move, the side key. The
+ * keys come from a fixed seed so that hashes are the same from one run to the
+ * next, which lets them be stored in opening books and logs.
+ */
+public final class Zobrist {
+    public static final long SIDE_KEY;
+
+    private static final long[] muscoviteKeys = new long[Bitboards.SQUARES];
+    private static final long[] swedeKeys = new long[Bitboards.SQUARES];
+    private static final long[] kingKeys = new long[Bitboards.SQUARES];
+    static {
+        Random rand = new Random(1648);
+        for (int square = 0; square < Bitboards.SQUARES; square++) {
+            muscoviteKeys[square] = rand.nextLong();
+            swedeKeys[square] = rand.nextLong();
+            kingKeys[square] = rand.nextLong();
+        }
+        SIDE_KEY = rand.nextLong();
+    }
+
+    private Zobrist() {
+    }
+
+    // Key of a piece of the given player, the king included, on the given square.
+    public static long pieceKey(int player, int square) {
+        return (player == TablutBoardState.MUSCOVITE) ? muscoviteKeys[square] : swedeKeys[square];
+    }
+
+    // Extra key for the king standing on the given square.
+    public static long kingKey(int square) {
+        return kingKeys[square];
+    }
+}